@@ -38,6 +38,7 @@ public class ReportInitializer implements Initializer {
 	public synchronized void started() {
 		removeOldReports();
 		ReportManagerUtil.setupAllReports(AijarReportManager.class);
+		// Patient data sets of this module choose their own batch size, see BatchedPatientDataSetEvaluator
 		ReportUtil.updateGlobalProperty(ReportingConstants.GLOBAL_PROPERTY_DATA_EVALUATION_BATCH_SIZE, "-1");
 	}
 
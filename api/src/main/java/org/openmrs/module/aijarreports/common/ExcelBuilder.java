@@ -1,9 +1,8 @@
 package org.openmrs.module.aijarreports.common;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -12,10 +11,10 @@ import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.poifs.crypt.EncryptionInfo;
 import org.apache.poi.poifs.crypt.EncryptionMode;
 import org.apache.poi.poifs.crypt.Encryptor;
@@ -25,6 +24,7 @@ import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.openmrs.Cohort;
 import org.openmrs.module.reporting.common.ExcelUtil;
@@ -34,11 +34,15 @@ import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorAndDimens
 
 /**
  * Excel Helper class that facilitates creating rows and columns in a workbook
+ * In streaming mode only a window of the most recent rows is kept in memory, older rows are flushed to compressed temp
+ * files, so rows must be written in ascending order and cannot be revisited once they have left the window
  */
 public class ExcelBuilder {
 
 	protected static Log log = LogFactory.getLog(ExcelBuilder.class);
 
+	public static final int DEFAULT_ROW_WINDOW = 100;
+
 	private Workbook workbook;
 
 	private Sheet currentSheet = null;
@@ -57,6 +61,22 @@ public class ExcelBuilder {
 		workbook = new XSSFWorkbook();
 	}
 
+	/**
+	 * Creates a builder in streaming mode, keeping at most rowWindow rows of each sheet in memory
+	 */
+	public ExcelBuilder(int rowWindow) {
+		SXSSFWorkbook streamingWorkbook = new SXSSFWorkbook(rowWindow);
+		streamingWorkbook.setCompressTempFiles(true);
+		workbook = streamingWorkbook;
+	}
+
+	/**
+	 * @return a builder in streaming mode with the default row window
+	 */
+	public static ExcelBuilder streaming() {
+		return new ExcelBuilder(DEFAULT_ROW_WINDOW);
+	}
+
 	/**
 	 * Create a new sheet with a default name, and switch to this sheet
 	 */
@@ -81,6 +101,7 @@ public class ExcelBuilder {
 		this.currentSheet = workbook.getSheetAt(getDesginProperty(properties.getProperty("renderToTemplateSheet")));
 		this.currentRowNum = getDesginProperty(properties.getProperty("renderToTemplateRow"));
 		this.currentColNum = getDesginProperty(properties.getProperty("renderToTemplateColumn"));
+		this.currentRow = null;
 		return this;
 	}
 
@@ -99,7 +120,10 @@ public class ExcelBuilder {
 			newSheet();
 		}
 		if (currentRow == null) {
-			currentRow = currentSheet.createRow(currentRowNum);
+			currentRow = currentSheet.getRow(currentRowNum);
+			if (currentRow == null) {
+				currentRow = currentSheet.createRow(currentRowNum);
+			}
 		}
 		Cell cell;
 		if (cellValue == null) {
@@ -156,8 +180,20 @@ public class ExcelBuilder {
 	/**
 	 * Outputs the Excel workbook to the specified output stream, first encrypting with a password if supplied
 	 * See: http://poi.apache.org/encryption.html
+	 * In streaming mode the temp files are deleted once the workbook is written, so it can only be written once
 	 */
 	public void write(OutputStream out, String password) throws IOException {
+		try {
+			writeWorkbook(out, password);
+		}
+		finally {
+			if (isStreaming()) {
+				((SXSSFWorkbook) workbook).dispose();
+			}
+		}
+	}
+
+	protected void writeWorkbook(OutputStream out, String password) throws IOException {
 		if (StringUtils.isBlank(password)) {
 			workbook.write(out);
 		} else {
@@ -166,31 +202,32 @@ public class ExcelBuilder {
 			Encryptor enc = info.getEncryptor();
 			enc.confirmPassword(password);
 
-			ByteArrayOutputStream baos = null;
-			ByteArrayInputStream bais = null;
-
+			// The encrypted package is the serialized workbook itself, so it is written straight into the encryptor,
+			// which encrypts chunk by chunk into a temp file that is copied into the file system as it is written out
+			OutputStream os = null;
 			try {
-				baos = new ByteArrayOutputStream();
-				workbook.write(baos);
-				bais = new ByteArrayInputStream(baos.toByteArray());
-
-				OPCPackage opc = OPCPackage.open(bais);
-				OutputStream os = enc.getDataStream(fs);
-				opc.save(os);
-				opc.close();
+				os = enc.getDataStream(fs);
+				// Workbooks close the stream they are written to, the shield keeps the encryptor open until it is
+				// closed below, once, which finishes the encryption, so failures there must not be swallowed
+				workbook.write(new CloseShieldOutputStream(os));
+				os.close();
+				os = null;
 			}
-			catch (Exception e) {
+			catch (GeneralSecurityException e) {
 				throw new IllegalStateException("Error writing encrypted Excel document", e);
 			}
 			finally {
-				IOUtils.closeQuietly(baos);
-				IOUtils.closeQuietly(bais);
+				IOUtils.closeQuietly(os);
 			}
 
 			fs.writeFilesystem(out);
 		}
 	}
 	
+	public boolean isStreaming() {
+		return workbook instanceof SXSSFWorkbook;
+	}
+
 	public Workbook getWorkbook() {
 		return workbook;
 	}
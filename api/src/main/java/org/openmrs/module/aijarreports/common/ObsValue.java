@@ -0,0 +1,136 @@
+package org.openmrs.module.aijarreports.common;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+
+import java.util.Date;
+
+/**
+ * The date and value fields of an obs, read as scalars instead of loading the Obs entity.
+ * Has the same property names as Obs so PropertyConverters on obsDatetime, valueNumeric, valueDatetime and valueText
+ * work on either
+ */
+public class ObsValue {
+
+    /**
+     * The value fields an obs query can project
+     */
+    public enum Field {
+        VALUE_CODED("o.valueCoded.conceptId"),
+        VALUE_NUMERIC("o.valueNumeric"),
+        VALUE_DATETIME("o.valueDatetime"),
+        VALUE_TEXT("o.valueText");
+
+        private final String property;
+
+        Field(String property) {
+            this.property = property;
+        }
+
+        /**
+         * @return the HQL property selected for this field on an Obs aliased as o
+         */
+        public String getProperty() {
+            return property;
+        }
+    }
+
+    private Date obsDatetime;
+
+    private Integer valueCodedId;
+
+    private Double valueNumeric;
+
+    private Date valueDatetime;
+
+    private String valueText;
+
+    public ObsValue() {
+    }
+
+    public ObsValue(Date obsDatetime) {
+        this.obsDatetime = obsDatetime;
+    }
+
+    /**
+     * @return the given ObsValue, or the value fields of the given Obs
+     */
+    public static ObsValue from(Object original) {
+        if (original == null || original instanceof ObsValue) {
+            return (ObsValue) original;
+        }
+        Obs obs = (Obs) original;
+        ObsValue value = new ObsValue(obs.getObsDatetime());
+        value.setValueCodedId(obs.getValueCoded() != null ? obs.getValueCoded().getConceptId() : null);
+        value.setValueNumeric(obs.getValueNumeric());
+        value.setValueDatetime(obs.getValueDatetime());
+        value.setValueText(obs.getValueText());
+        return value;
+    }
+
+    /**
+     * Sets the given field from a query column
+     */
+    public void set(Field field, Object value) {
+        if (field == Field.VALUE_CODED) {
+            valueCodedId = (Integer) value;
+        } else if (field == Field.VALUE_NUMERIC) {
+            valueNumeric = value != null ? ((Number) value).doubleValue() : null;
+        } else if (field == Field.VALUE_DATETIME) {
+            valueDatetime = (Date) value;
+        } else if (field == Field.VALUE_TEXT) {
+            valueText = (String) value;
+        }
+    }
+
+    public Date getObsDatetime() {
+        return obsDatetime;
+    }
+
+    public void setObsDatetime(Date obsDatetime) {
+        this.obsDatetime = obsDatetime;
+    }
+
+    public Integer getValueCodedId() {
+        return valueCodedId;
+    }
+
+    public void setValueCodedId(Integer valueCodedId) {
+        this.valueCodedId = valueCodedId;
+    }
+
+    /**
+     * @return the coded answer, looked up from its id
+     */
+    public Concept getValueCoded() {
+        if (valueCodedId == null) {
+            return null;
+        }
+        return Context.getConceptService().getConcept(valueCodedId);
+    }
+
+    public Double getValueNumeric() {
+        return valueNumeric;
+    }
+
+    public void setValueNumeric(Double valueNumeric) {
+        this.valueNumeric = valueNumeric;
+    }
+
+    public Date getValueDatetime() {
+        return valueDatetime;
+    }
+
+    public void setValueDatetime(Date valueDatetime) {
+        this.valueDatetime = valueDatetime;
+    }
+
+    public String getValueText() {
+        return valueText;
+    }
+
+    public void setValueText(String valueText) {
+        this.valueText = valueText;
+    }
+}
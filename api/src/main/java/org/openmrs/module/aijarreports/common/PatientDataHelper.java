@@ -1,31 +1,28 @@
 package org.openmrs.module.aijarreports.common;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Concept;
-import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
-import org.openmrs.Obs;
 import org.openmrs.Patient;
-import org.openmrs.Person;
+import org.openmrs.PersonName;
 import org.openmrs.RelationshipType;
-import org.openmrs.api.EncounterService;
-import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.aijarreports.metadata.CommonReportMetadata;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
 import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 
 /**
  * Created by carapai on 11/05/2016.
+ * Data is read for a whole cohort at a time, one query per kind of data, and keyed by patient id
  */
 public class PatientDataHelper {
 
@@ -35,8 +32,6 @@ public class PatientDataHelper {
 
 	private Map<String, RelationshipType> relTypeCache = new HashMap<String, RelationshipType>();
 
-	private CommonReportMetadata commonMetadata = new CommonReportMetadata();
-
 	// Data Set Utilities
 
 	public void addCol(DataSetRow row, String label, Object value) {
@@ -72,39 +67,73 @@ public class PatientDataHelper {
 		return new SimpleDateFormat("yyyy-MM-dd").format(d);
 	}
 
-	public Obs getLatestObs(Patient p, String concept, List<EncounterType> onlyInEncountersOfType, Date endDate) {
-		Concept c = commonMetadata.getConcept(concept);
-		List<Encounter> encounters = null;
-		if (onlyInEncountersOfType != null) {
-			EncounterService es = Context.getEncounterService();
-			encounters = es.getEncounters(p, null, null, endDate, null, onlyInEncountersOfType, null, false);
-		}
-		ObsService os = Context.getObsService();
-		List<Obs> l = os.getObservations(Arrays.asList((Person) p), encounters, Arrays.asList(c), null, null, null, null, 1,
-				null, null, endDate, false);
-		if (l.isEmpty()) {
-			return null;
+	/**
+	 * @return the given name, family name, birthdate and gender of every patient of the bound cohort, by patient id
+	 */
+	public Map<Integer, Demographics> getDemographics(CohortBinder.CohortBinding cohort, EvaluationContext context) {
+		EvaluationService evaluationService = Context.getService(EvaluationService.class);
+		Map<Integer, Demographics> ret = new LinkedHashMap<Integer, Demographics>();
+
+		for (CohortBinder.CohortBinding chunk : cohort.split()) {
+			HqlQueryBuilder q = new HqlQueryBuilder();
+			q.select("p.patientId", "p.birthdate", "p.gender");
+			q.from(Patient.class, "p");
+			q.whereEqual("p.voided", false);
+			chunk.wherePersonIn(q, "p.patientId");
+			q.orderAsc("p.patientId");
+			for (Object[] row : evaluationService.evaluateToList(q, context)) {
+				Demographics d = new Demographics();
+				d.birthdate = (Date) row[1];
+				d.gender = (String) row[2];
+				ret.put((Integer) row[0], d);
+			}
+
+			// Preferred names sort last, so they overwrite any other name of the same person
+			HqlQueryBuilder names = new HqlQueryBuilder();
+			names.select("pn.person.personId", "pn.givenName", "pn.familyName");
+			names.from(PersonName.class, "pn");
+			names.whereEqual("pn.voided", false);
+			chunk.wherePersonIn(names, "pn.person.personId");
+			names.orderAsc("pn.preferred");
+			names.orderDesc("pn.personNameId");
+			for (Object[] row : evaluationService.evaluateToList(names, context)) {
+				Demographics d = ret.get(row[0]);
+				if (d != null) {
+					d.givenName = (String) row[1];
+					d.familyName = (String) row[2];
+				}
+			}
 		}
-		return l.get(0);
+		return ret;
 	}
 
-	public Obs getEarliestObs(Patient p, String concept, List<EncounterType> onlyInEncountersOfType, Date endDate) {
-		Concept c = commonMetadata.getConcept(concept);
-		List<Encounter> encs = null;
-		if (onlyInEncountersOfType != null) {
-			encs = Context.getEncounterService().getEncounters(p, null, null, endDate, null, onlyInEncountersOfType, null,
-					false);
+	/**
+	 * The demographic columns of a patient
+	 */
+	public static class Demographics {
+
+		private String givenName;
+
+		private String familyName;
+
+		private Date birthdate;
+
+		private String gender;
+
+		public String getGivenName() {
+			return givenName;
 		}
-		ObsService os = Context.getObsService();
-		List<Obs> l = os.getObservations(Arrays.asList((Person) p), encs, Arrays.asList(c), null, null, null, null, null,
-				null, null, endDate, false);
-		Map<Date, Obs> m = new TreeMap<Date, Obs>();
-		for (Obs o : l) {
-			m.put(o.getObsDatetime(), o);
+
+		public String getFamilyName() {
+			return familyName;
 		}
-		if (m.isEmpty()) {
-			return null;
+
+		public Date getBirthdate() {
+			return birthdate;
+		}
+
+		public String getGender() {
+			return gender;
 		}
-		return m.values().iterator().next();
 	}
 }
@@ -3,6 +3,7 @@ package org.openmrs.module.aijarreports.common;
 import org.joda.time.LocalDate;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -43,4 +44,23 @@ public class Periods {
 
         return Arrays.asList(monthStartFor(addedMonths), monthEndFor(addedMonths));
     }
+
+    /**
+     * The start and end dates of the period which is periodToAdd periods after the one containing workingDate.
+     * When no period is given the window runs from workingDate up to today
+     */
+    public static List<LocalDate> periodDates(Period period, LocalDate workingDate, int periodToAdd) {
+        if (period == Period.QUARTERLY) {
+            if (periodToAdd > 0) {
+                return addQuarters(workingDate, periodToAdd);
+            }
+            return Arrays.asList(quarterStartFor(workingDate), quarterEndFor(workingDate));
+        } else if (period == Period.MONTHLY) {
+            if (periodToAdd > 0) {
+                return addMonths(workingDate, periodToAdd);
+            }
+            return Arrays.asList(monthStartFor(workingDate), monthEndFor(workingDate));
+        }
+        return Arrays.asList(workingDate, StubDate.dateOf(new Date()));
+    }
 }
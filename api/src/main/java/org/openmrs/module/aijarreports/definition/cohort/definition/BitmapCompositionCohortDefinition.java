@@ -0,0 +1,14 @@
+package org.openmrs.module.aijarreports.definition.cohort.definition;
+
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+
+/**
+ * A composition built by this module's libraries, which is combined as bitmaps with its searches evaluated once per
+ * run. Compositions of other modules keep the reporting module's evaluator
+ */
+public class BitmapCompositionCohortDefinition extends CompositionCohortDefinition {
+
+    public BitmapCompositionCohortDefinition() {
+        super();
+    }
+}
@@ -0,0 +1,14 @@
+package org.openmrs.module.aijarreports.definition.cohort.definition;
+
+import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
+
+/**
+ * An age cohort of this module's libraries, evaluated once per run for each effective date it is mapped to and then
+ * read from the CohortQueryPlanner store
+ */
+public class CachedAgeCohortDefinition extends AgeCohortDefinition {
+
+    public CachedAgeCohortDefinition() {
+        super();
+    }
+}
@@ -0,0 +1,14 @@
+package org.openmrs.module.aijarreports.definition.cohort.definition;
+
+import org.openmrs.module.reporting.cohort.definition.EncounterCohortDefinition;
+
+/**
+ * An encounter cohort of this module's libraries. Many indicators search the same encounter types over the same dates,
+ * so each distinct search is evaluated once per run and then read from the CohortQueryPlanner store
+ */
+public class CachedEncounterCohortDefinition extends EncounterCohortDefinition {
+
+    public CachedEncounterCohortDefinition() {
+        super();
+    }
+}
@@ -0,0 +1,14 @@
+package org.openmrs.module.aijarreports.definition.cohort.definition;
+
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+
+/**
+ * A gender cohort of this module's libraries. Dimensions use the same few gender cohorts in every column, so each is
+ * evaluated once per run and then read from the CohortQueryPlanner store
+ */
+public class CachedGenderCohortDefinition extends GenderCohortDefinition {
+
+    public CachedGenderCohortDefinition() {
+        super();
+    }
+}
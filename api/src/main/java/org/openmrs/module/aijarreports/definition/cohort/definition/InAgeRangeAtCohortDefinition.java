@@ -13,6 +13,8 @@
  */
 package org.openmrs.module.aijarreports.definition.cohort.definition;
 
+import java.util.Date;
+
 import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
 import org.openmrs.module.reporting.common.Age;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
@@ -33,6 +35,9 @@ public class InAgeRangeAtCohortDefinition extends BaseCohortDefinition {
 	@ConfigurationProperty(required = false)
 	private Age.Unit maxAgeUnit = Age.Unit.YEARS;
 
+	@ConfigurationProperty(required = false)
+	private Date effectiveDate;
+
 	public InAgeRangeAtCohortDefinition() {
 		super();
 	}
@@ -68,4 +73,12 @@ public class InAgeRangeAtCohortDefinition extends BaseCohortDefinition {
 	public void setMaxAgeUnit(Age.Unit maxAgeUnit) {
 		this.maxAgeUnit = maxAgeUnit;
 	}
-}
\ No newline at end of file
+
+	public Date getEffectiveDate() {
+		return effectiveDate;
+	}
+
+	public void setEffectiveDate(Date effectiveDate) {
+		this.effectiveDate = effectiveDate;
+	}
+}
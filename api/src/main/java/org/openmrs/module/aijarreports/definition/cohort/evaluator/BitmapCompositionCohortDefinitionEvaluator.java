@@ -0,0 +1,189 @@
+package org.openmrs.module.aijarreports.definition.cohort.evaluator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.aijarreports.definition.cohort.definition.BitmapCompositionCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortFingerprint;
+import org.openmrs.module.aijarreports.evaluation.CohortQueryPlanner;
+import org.openmrs.module.aijarreports.evaluation.PatientBitmap;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Evaluates composition cohorts with bitmap AND, OR and AND NOT.
+ * Nested compositions are combined as bitmaps all the way down, so a boxed Cohort is only built for the composition
+ * the caller asked for. Operators apply left to right, as in the reporting module; "1 NOT 2" means 1 AND NOT 2
+ * and a leading NOT is taken against the base cohort, or all patients when there is none.
+ * Every search is evaluated through the CohortQueryPlanner so shared sub-cohorts are evaluated once per run.
+ * Only this module's BitmapCompositionCohortDefinitions are handled, along with the compositions nested in them
+ */
+@Handler(supports = {BitmapCompositionCohortDefinition.class}, order = 50)
+public class BitmapCompositionCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
+
+    protected static final Log log = LogFactory.getLog(BitmapCompositionCohortDefinitionEvaluator.class);
+
+    @Autowired
+    EvaluationService evaluationService;
+
+    @Autowired
+    CohortQueryPlanner cohortQueryPlanner;
+
+    @Override
+    public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context) throws EvaluationException {
+        CompositionCohortDefinition cd = (CompositionCohortDefinition) cohortDefinition;
+        PatientBitmap result = evaluateToBitmap(cd, context);
+        return new EvaluatedCohort(result.toCohort(), cd, context);
+    }
+
+    /**
+     * Evaluates the composition, reusing the result of any structurally identical composition already evaluated with
+     * the same parameter values during this run
+     */
+    public PatientBitmap evaluateToBitmap(final CompositionCohortDefinition cd, final EvaluationContext context) throws EvaluationException {
+        return cohortQueryPlanner.evaluate(CohortFingerprint.of(cd, context), context, new CohortQueryPlanner.Evaluation() {
+            @Override
+            public PatientBitmap evaluate() throws EvaluationException {
+                return combine(cd, context);
+            }
+        });
+    }
+
+    protected PatientBitmap combine(CompositionCohortDefinition cd, EvaluationContext context) throws EvaluationException {
+        Expression expression = new Expression(cd, context);
+        PatientBitmap result = expression.parseExpression();
+        if (expression.hasMoreTokens()) {
+            throw new IllegalArgumentException("Unexpected '" + expression.peek() + "' in composition " + cd.getCompositionString());
+        }
+        if (context.getBaseCohort() != null) {
+            result = result.and(PatientBitmap.of(context.getBaseCohort()));
+        }
+        return result;
+    }
+
+    protected PatientBitmap evaluateSearch(final Mapped<CohortDefinition> mapped, final EvaluationContext context) throws EvaluationException {
+        EvaluationContext childContext = EvaluationContext.cloneForChild(context, mapped);
+        if (mapped.getParameterizable() instanceof CompositionCohortDefinition) {
+            return evaluateToBitmap((CompositionCohortDefinition) mapped.getParameterizable(), childContext);
+        }
+        return cohortQueryPlanner.evaluate(CohortFingerprint.of(mapped.getParameterizable(), childContext), context, new CohortQueryPlanner.Evaluation() {
+            @Override
+            public PatientBitmap evaluate() throws EvaluationException {
+                return PatientBitmap.of(Context.getService(CohortDefinitionService.class).evaluate(mapped, context));
+            }
+        });
+    }
+
+    protected PatientBitmap getAllPatients(EvaluationContext context) {
+        if (context.getBaseCohort() != null) {
+            return PatientBitmap.of(context.getBaseCohort());
+        }
+        HqlQueryBuilder q = new HqlQueryBuilder();
+        q.select("p.patientId");
+        q.from(Patient.class, "p");
+        q.whereEqual("p.voided", false);
+        return PatientBitmap.of(evaluationService.evaluateToList(q, Integer.class, context));
+    }
+
+    /**
+     * Recursive descent over the tokens of a composition string
+     */
+    private class Expression {
+
+        private final CompositionCohortDefinition cd;
+
+        private final EvaluationContext context;
+
+        private final List<String> tokens = new ArrayList<String>();
+
+        private int position = 0;
+
+        private PatientBitmap allPatients;
+
+        Expression(CompositionCohortDefinition cd, EvaluationContext context) {
+            this.cd = cd;
+            this.context = context;
+            StringTokenizer tokenizer = new StringTokenizer(cd.getCompositionString(), "() \t\n", true);
+            while (tokenizer.hasMoreTokens()) {
+                String token = tokenizer.nextToken().trim();
+                if (token.length() > 0) {
+                    tokens.add(token);
+                }
+            }
+        }
+
+        boolean hasMoreTokens() {
+            return position < tokens.size();
+        }
+
+        String peek() {
+            return hasMoreTokens() ? tokens.get(position) : null;
+        }
+
+        boolean accept(String token) {
+            if (token.equalsIgnoreCase(peek())) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        PatientBitmap parseExpression() throws EvaluationException {
+            PatientBitmap value = parseOperand();
+            while (hasMoreTokens() && !")".equals(peek())) {
+                if (accept("AND")) {
+                    if (accept("NOT")) {
+                        value = value.andNot(parseOperand());
+                    } else {
+                        value = value.and(parseOperand());
+                    }
+                } else if (accept("OR")) {
+                    value = value.or(parseOperand());
+                } else if (accept("NOT")) {
+                    value = value.andNot(parseOperand());
+                } else {
+                    throw new IllegalArgumentException("Expected AND, OR or NOT but found '" + peek() + "' in composition " + cd.getCompositionString());
+                }
+            }
+            return value;
+        }
+
+        PatientBitmap parseOperand() throws EvaluationException {
+            if (accept("(")) {
+                PatientBitmap value = parseExpression();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ')' in composition " + cd.getCompositionString());
+                }
+                return value;
+            }
+            if (accept("NOT")) {
+                if (allPatients == null) {
+                    allPatients = getAllPatients(context);
+                }
+                return allPatients.andNot(parseOperand());
+            }
+            String key = peek();
+            Mapped<CohortDefinition> mapped = key == null ? null : cd.getSearches().get(key);
+            if (mapped == null) {
+                throw new IllegalArgumentException("No search named '" + key + "' in composition " + cd.getCompositionString());
+            }
+            position++;
+            return evaluateSearch(mapped, context);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.openmrs.module.aijarreports.definition.cohort.evaluator;
+
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedAgeCohortDefinition;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedEncounterCohortDefinition;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedGenderCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortFingerprint;
+import org.openmrs.module.aijarreports.evaluation.CohortQueryPlanner;
+import org.openmrs.module.aijarreports.evaluation.PatientBitmap;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.EncounterCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.evaluator.AgeCohortDefinitionEvaluator;
+import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
+import org.openmrs.module.reporting.cohort.definition.evaluator.EncounterCohortDefinitionEvaluator;
+import org.openmrs.module.reporting.cohort.definition.evaluator.GenderCohortDefinitionEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Evaluates the gender, age and encounter cohorts of this module's libraries once per run for each distinct combination
+ * of fingerprint and parameter values, whichever indicator column or dimension asks for them, and delegates the actual
+ * evaluation to the reporting module's evaluators. Plain gender, age and encounter cohorts are left to those evaluators
+ */
+@Handler(supports = {CachedGenderCohortDefinition.class, CachedAgeCohortDefinition.class, CachedEncounterCohortDefinition.class}, order = 50)
+public class FingerprintCachingCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
+
+    @Autowired
+    CohortQueryPlanner cohortQueryPlanner;
+
+    @Autowired
+    GenderCohortDefinitionEvaluator genderCohortDefinitionEvaluator;
+
+    @Autowired
+    AgeCohortDefinitionEvaluator ageCohortDefinitionEvaluator;
+
+    @Autowired
+    EncounterCohortDefinitionEvaluator encounterCohortDefinitionEvaluator;
+
+    @Override
+    public EvaluatedCohort evaluate(final CohortDefinition cohortDefinition, final EvaluationContext context) throws EvaluationException {
+        PatientBitmap result = cohortQueryPlanner.evaluate(CohortFingerprint.of(cohortDefinition, context), context, new CohortQueryPlanner.Evaluation() {
+            @Override
+            public PatientBitmap evaluate() throws EvaluationException {
+                if (cohortDefinition instanceof GenderCohortDefinition) {
+                    return PatientBitmap.of(genderCohortDefinitionEvaluator.evaluate(cohortDefinition, context));
+                }
+                if (cohortDefinition instanceof EncounterCohortDefinition) {
+                    return PatientBitmap.of(encounterCohortDefinitionEvaluator.evaluate(cohortDefinition, context));
+                }
+                return PatientBitmap.of(ageCohortDefinitionEvaluator.evaluate(cohortDefinition, context));
+            }
+        });
+        return new EvaluatedCohort(result.toCohort(), cohortDefinition, context);
+    }
+}
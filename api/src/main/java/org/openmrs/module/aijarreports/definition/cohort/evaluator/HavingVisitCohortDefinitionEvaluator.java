@@ -1,36 +1,57 @@
 package org.openmrs.module.aijarreports.definition.cohort.evaluator;
 
-import org.openmrs.Cohort;
+import org.joda.time.LocalDate;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.aijarreports.definition.cohort.definition.HavingVisitCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.PatientBitmap;
+import org.openmrs.module.aijarreports.evaluation.RunCache;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
-import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.querybuilder.SqlQueryBuilder;
 import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Date;
+
 /**
  * Created by carapai on 20/04/2016.
+ *
+ * Patients with an appointment (concept 5096) whose date plus 90 days falls between the start and end date. The 90 days
+ * are taken off the bounds rather than added to every value_datetime, so the query can range scan an index on
+ * (concept_id, value_datetime). Results are kept in the RunCache by date window, so worker threads share them
  */
 @Handler(supports = {HavingVisitCohortDefinition.class})
 public class HavingVisitCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
 
+    public static final String RESULTS = HavingVisitCohortDefinitionEvaluator.class.getName() + ":";
+
     @Autowired
     EvaluationService evaluationService;
 
+    @Autowired
+    RunCache runCache;
+
     @Override
-    public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context)
+    public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, final EvaluationContext context)
             throws EvaluationException {
-        EvaluatedCohort ret = new EvaluatedCohort(cohortDefinition, context);
         HavingVisitCohortDefinition cd = (HavingVisitCohortDefinition) cohortDefinition;
-        SqlQueryBuilder q = new SqlQueryBuilder();
-        String query = String.format("select distinct person_id from (select person_id,value_datetime,ADDDATE(value_datetime, interval 90 day) as dt from obs where concept_id = 5096  having dt between '%s' and '%s') D", DateUtil.formatDate(cd.getStartDate(),"yyyy-MM-dd"), DateUtil.formatDate(cd.getEndDate(),"yyyy-MM-dd"));
-        q.append(query);
-        Cohort c = new Cohort(evaluationService.evaluateToList(q, Integer.class, context));
-        return new EvaluatedCohort(c, cd, context);
+        final Date startDate = new LocalDate(cd.getStartDate()).minusDays(90).toDate();
+        final Date endDate = new LocalDate(cd.getEndDate()).minusDays(90).toDate();
+
+        String key = RESULTS + startDate.getTime() + ":" + endDate.getTime();
+        PatientBitmap result = runCache.get(key, context, new RunCache.Computation<PatientBitmap>() {
+            @Override
+            public PatientBitmap compute() {
+                SqlQueryBuilder q = new SqlQueryBuilder();
+                q.append("select distinct person_id from obs where concept_id = 5096 and value_datetime between :startDate and :endDate");
+                q.addParameter("startDate", startDate);
+                q.addParameter("endDate", endDate);
+                return PatientBitmap.of(evaluationService.evaluateToList(q, Integer.class, context));
+            }
+        });
+        return new EvaluatedCohort(result.toCohort(), cd, context);
     }
 }
@@ -15,47 +15,84 @@ package org.openmrs.module.aijarreports.definition.cohort.evaluator;
 
 import java.util.Date;
 
-import org.openmrs.Cohort;
+import org.joda.time.LocalDate;
 import org.openmrs.Patient;
 import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.aijarreports.definition.cohort.definition.InAgeRangeAtCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.EvaluationIndexes;
+import org.openmrs.module.aijarreports.evaluation.PatientBitmap;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
 import org.openmrs.module.reporting.common.Age;
-import org.openmrs.module.reporting.common.AgeRange;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
 import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
+/**
+ * Evaluates the age range as an interval of birthdates at the effective date (the evaluation date when none is set).
+ * The interval is pushed into the query on person.birthdate, or looked up in the shared birthdate index of the run when
+ * the aijarreports.birthdateIndex global property is true
+ */
 @Handler(supports = { InAgeRangeAtCohortDefinition.class })
 public class InAgeRangeAtCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
 
+	public static final String GP_BIRTHDATE_INDEX = "aijarreports.birthdateIndex";
+
 	@Autowired
 	EvaluationService evaluationService;
 
+	@Autowired
+	EvaluationIndexes evaluationIndexes;
+
+	@Autowired
+	CohortBinder cohortBinder;
+
 	public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context) {
 
 		InAgeRangeAtCohortDefinition cd = (InAgeRangeAtCohortDefinition) cohortDefinition;
 
-		HqlQueryBuilder q = new HqlQueryBuilder();
-		q.select("p.patientId, p.birthdate");
-		q.from(Patient.class, "p");
-		q.whereEqual("p.voided", false);
-		Cohort c = new Cohort();
-
-		AgeRange ageRange = new AgeRange(cd.getMinAge(), cd.getMinAgeUnit(), cd.getMaxAge(), cd.getMaxAgeUnit(), "");
+		LocalDate effectiveDate = new LocalDate(cd.getEffectiveDate() != null ? cd.getEffectiveDate() : context.getEvaluationDate());
+		// at least minAge full units old means born on or before the date minAge units back, at most maxAge full
+		// units old means born after the date maxAge + 1 units back
+		Date bornOnOrBefore = cd.getMinAge() == null ? null : minus(effectiveDate, cd.getMinAge(), cd.getMinAgeUnit()).toDate();
+		Date bornOnOrAfter = cd.getMaxAge() == null ? null : minus(effectiveDate, cd.getMaxAge() + 1, cd.getMaxAgeUnit()).plusDays(1).toDate();
 
-		for (Object[] row : evaluationService.evaluateToList(q, context)) {
-			Integer pId = (Integer) row[0];
-			Date bd = (Date) row[1];
-			Age age = new Age(bd);
-			if (ageRange.isInRange(age)) {
-				c.addMember(pId);
+		PatientBitmap c;
+		if ("true".equalsIgnoreCase(Context.getAdministrationService().getGlobalProperty(GP_BIRTHDATE_INDEX))) {
+			c = evaluationIndexes.getBirthdates(context).getBetween(bornOnOrAfter, bornOnOrBefore);
+		} else {
+			c = new PatientBitmap();
+			for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+				HqlQueryBuilder q = new HqlQueryBuilder();
+				q.select("p.patientId");
+				q.from(Patient.class, "p");
+				q.whereEqual("p.voided", false);
+				q.whereNotNull("p.birthdate");
+				q.whereBetweenInclusive("p.birthdate", bornOnOrAfter, bornOnOrBefore);
+				chunk.wherePersonIn(q, "p.patientId");
+				c = c.or(PatientBitmap.of(evaluationService.evaluateToList(q, Integer.class, context)));
 			}
 		}
 
-		return new EvaluatedCohort(c, cd, context);
+		return new EvaluatedCohort(c.toCohort(), cd, context);
+	}
+
+	protected LocalDate minus(LocalDate date, int amount, Age.Unit unit) {
+		switch (unit) {
+			case YEARS:
+				return date.minusYears(amount);
+			case MONTHS:
+				return date.minusMonths(amount);
+			case WEEKS:
+				return date.minusWeeks(amount);
+			case DAYS:
+				return date.minusDays(amount);
+			default:
+				throw new IllegalArgumentException("Unsupported age unit " + unit);
+		}
 	}
-}
\ No newline at end of file
+}
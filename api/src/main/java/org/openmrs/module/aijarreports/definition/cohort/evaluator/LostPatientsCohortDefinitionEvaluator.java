@@ -1,63 +1,50 @@
 package org.openmrs.module.aijarreports.definition.cohort.evaluator;
 
-import org.openmrs.Obs;
+import org.joda.time.DateTime;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.aijarreports.definition.cohort.definition.LostPatientsCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.EvaluationIndexes;
+import org.openmrs.module.aijarreports.evaluation.SortedPatientDateIndex;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
-import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
-import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
-import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Date;
-import java.util.List;
 
 /**
  * Created by carapai on 28/06/2016.
+ *
+ * Patients whose last appointment on or before the end date is between minimumDays and maximumDays days before it.
+ * The last appointment dates are indexed once per end date and shared by every lost and lost to follow up cohort of the run
  */
 @Handler(supports = {LostPatientsCohortDefinition.class})
 public class LostPatientsCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
 
     @Autowired
-    EvaluationService evaluationService;
+    EvaluationIndexes evaluationIndexes;
 
     @Override
     public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context) throws EvaluationException {
-        EvaluatedCohort ret = new EvaluatedCohort(cohortDefinition, context);
         LostPatientsCohortDefinition cd = (LostPatientsCohortDefinition) cohortDefinition;
-
-        HqlQueryBuilder obsQuery = new HqlQueryBuilder();
-        obsQuery.select("o.person.personId", "max(o.valueDatetime)");
-        obsQuery.from(Obs.class, "o");
-        obsQuery.wherePersonIn("o.person.personId", context);
-        obsQuery.whereEqual("o.concept.conceptId", 5096);
-        obsQuery.whereLessOrEqualTo("o.valueDatetime", cd.getEndDate());
-        obsQuery.whereEqual("o.person.personVoided", false);
-
-        obsQuery.groupBy("o.person.personId");
-
-
-        List<Object[]> queryResults = evaluationService.evaluateToList(obsQuery, context);
-
-        for (Object[] row : queryResults) {
-            Integer patientId = (Integer) row[0];
-            Date nextAppointmentDate = (Date) row[1];
-
-            Integer daysBetweenLastAppointmentAndCurrentDate = DateUtil.getDaysBetween(nextAppointmentDate, cd.getEndDate());
-
-            if (cd.getMaximumDays() != null && cd.getMinimumDays() != null && daysBetweenLastAppointmentAndCurrentDate >= cd.getMinimumDays() && daysBetweenLastAppointmentAndCurrentDate <= cd.getMaximumDays()) {
-                ret.addMember(patientId);
-            } else if (cd.getMinimumDays() != null && daysBetweenLastAppointmentAndCurrentDate >= cd.getMinimumDays()) {
-                ret.addMember(patientId);
-            } else if (cd.getMaximumDays() != null && daysBetweenLastAppointmentAndCurrentDate <= cd.getMaximumDays()) {
-                ret.addMember(patientId);
-            }
-
+        if (cd.getMinimumDays() == null && cd.getMaximumDays() == null) {
+            return new EvaluatedCohort(cd, context);
+        }
+        SortedPatientDateIndex lastAppointments = evaluationIndexes.getLastAppointmentDates(cd.getEndDate(), context);
+
+        // n whole days between the appointment and the end date means the appointment is at least n and less than
+        // n + 1 days before the end date
+        DateTime endDate = new DateTime(cd.getEndDate());
+        Date from = null;
+        Date to = null;
+        if (cd.getMaximumDays() != null) {
+            from = new Date(endDate.minusDays(cd.getMaximumDays() + 1).getMillis() + 1);
+        }
+        if (cd.getMinimumDays() != null) {
+            to = endDate.minusDays(cd.getMinimumDays()).toDate();
         }
-        return ret;
+        return new EvaluatedCohort(lastAppointments.getBetween(from, to).toCohort(), cd, context);
     }
 }
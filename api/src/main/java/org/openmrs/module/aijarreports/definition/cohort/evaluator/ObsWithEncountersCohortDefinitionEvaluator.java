@@ -1,27 +1,29 @@
 package org.openmrs.module.aijarreports.definition.cohort.evaluator;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
-import org.openmrs.Encounter;
-import org.openmrs.Obs;
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.aijarreports.definition.cohort.definition.ObsWithEncountersCohortDefinition;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
 import org.openmrs.module.reporting.common.DateUtil;
-import org.openmrs.module.reporting.common.TimeQualifier;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
-import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.querybuilder.SqlQueryBuilder;
 import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Created by carapai on 20/04/2016.
+ *
+ * Patients with an answer to the question in an encounter between the start of the start month and the end of the end
+ * month, who also had an encounter of one of the types during the start month. Both conditions are evaluated in one
+ * query, the second as an EXISTS, so the patients of the start month never leave the database
  */
 @Handler(supports = { ObsWithEncountersCohortDefinition.class })
 public class ObsWithEncountersCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
@@ -40,39 +42,45 @@ public class ObsWithEncountersCohortDefinitionEvaluator implements CohortDefinit
 
 		Date endingOfEnding = DateUtil.getEndOfMonth(cd.getEndDate());
 
-		HqlQueryBuilder encQuery = new HqlQueryBuilder();
-		encQuery.select(new String[] { "e.patient.patientId, e.encounterId" });
-		encQuery.from(Encounter.class, "e");
-		encQuery.whereIn("e.encounterType", cd.getEncounterTypes());
-		encQuery.whereBetweenInclusive("e.encounterDatetime", beginning, ending);
-		if (cd.getWhichEncounter() == TimeQualifier.LAST) {
-			encQuery.orderAsc("e.encounterDatetime").orderAsc("e.dateCreated");
-		} else if (cd.getWhichEncounter() == TimeQualifier.FIRST) {
-			encQuery.orderDesc("e.encounterDatetime").orderDesc("e.dateCreated");
+		SqlQueryBuilder q = new SqlQueryBuilder();
+		q.append("select distinct o.person_id from obs o ");
+		q.append("inner join encounter oe on oe.encounter_id = o.encounter_id ");
+		q.append("where o.concept_id = :question ");
+		q.append("and o.voided = 0 and oe.voided = 0 ");
+		q.append("and oe.encounter_datetime between :beginning and :endingOfEnding ");
+		if (cd.getAnswers() != null) {
+			q.append("and o.value_coded in (:answers) ");
+			q.addParameter("answers", getConceptIds(cd.getAnswers()));
 		}
-
-		HashSet personsToInclude = new HashSet();
-		if (cd.getWhichEncounter() != TimeQualifier.LAST && cd.getWhichEncounter() != TimeQualifier.FIRST) {
-			List q1 = this.evaluationService.evaluateToList(encQuery, Integer.class, context);
-			personsToInclude.addAll(q1);
-		} else {
-			Map q = this.evaluationService.evaluateToMap(encQuery, Integer.class, Integer.class, context);
-			personsToInclude.addAll(q.values());
+		q.append("and exists (select 1 from encounter e where e.patient_id = o.person_id and e.voided = 0 ");
+		if (cd.getEncounterTypes() != null && !cd.getEncounterTypes().isEmpty()) {
+			q.append("and e.encounter_type in (:encounterTypes) ");
+			q.addParameter("encounterTypes", getEncounterTypeIds(cd.getEncounterTypes()));
 		}
+		q.append("and e.encounter_datetime between :beginning and :ending)");
+		q.addParameter("question", cd.getQuestion().getConceptId());
+		q.addParameter("beginning", beginning);
+		q.addParameter("ending", ending);
+		q.addParameter("endingOfEnding", endingOfEnding);
 
-		HqlQueryBuilder q2 = new HqlQueryBuilder();
-		q2.select(new String[] { "o.personId" });
-		q2.from(Obs.class, "o");
-		q2.whereEqual("o.concept", cd.getQuestion());
-		q2.whereIdIn("o.person", personsToInclude);
-		q2.whereBetweenInclusive("o.encounter.encounterDatetime", beginning, endingOfEnding);
+		List<Integer> pIds = this.evaluationService.evaluateToList(q, Integer.class, context);
+		ret.getMemberIds().addAll(pIds);
+		return ret;
+	}
 
-		if (cd.getAnswers() != null) {
-			q2.whereIn("o.valueCoded", cd.getAnswers());
+	protected List<Integer> getConceptIds(List<Concept> concepts) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Concept concept : concepts) {
+			ids.add(concept.getConceptId());
 		}
+		return ids;
+	}
 
-		List pIds = this.evaluationService.evaluateToList(q2, Integer.class, context);
-		ret.getMemberIds().addAll(pIds);
-		return ret;
+	protected List<Integer> getEncounterTypeIds(List<EncounterType> encounterTypes) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (EncounterType encounterType : encounterTypes) {
+			ids.add(encounterType.getEncounterTypeId());
+		}
+		return ids;
 	}
 }
@@ -1,7 +1,7 @@
 package org.openmrs.module.aijarreports.definition.data.converter;
 
 import org.openmrs.Concept;
-import org.openmrs.Obs;
+import org.openmrs.module.aijarreports.common.ObsValue;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.data.converter.DataConverter;
 
@@ -14,9 +14,9 @@ public class ARVConverter implements DataConverter {
     }
 
     public Object convert(Object original) {
-        Obs o = (Obs) original;
-        if (o != null) {
-            int conceptId = o.getValueCoded().getConceptId();
+        ObsValue o = ObsValue.from(original);
+        if (o != null && o.getValueCodedId() != null) {
+            int conceptId = o.getValueCodedId();
 
             if (conceptId == 99015) {
                 return "1a";
@@ -1,38 +1,58 @@
 package org.openmrs.module.aijarreports.definition.data.converter;
 
+import org.apache.commons.lang.StringUtils;
 import org.openmrs.Encounter;
-import org.openmrs.User;
-import org.openmrs.api.EncounterService;
+import org.openmrs.PersonName;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.reporting.data.converter.DataConverter;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Converts an Encounter ID to the corresponding Encounter creator full name
  */
-public class EncounterProviderFromIdConverter implements DataConverter {
+public class EncounterProviderFromIdConverter extends IdResolvingConverter {
 
 	public EncounterProviderFromIdConverter() {
 	}
 
+	/**
+	 * Reads the name columns of the creator's person rather than the creator, preferred names sorting last so they
+	 * overwrite any other name of the same encounter
+	 */
 	@Override
-	public Object convert(Object original) {
-		if (original != null) {
-			EncounterService es = Context.getEncounterService();
-			Encounter e = es.getEncounter((Integer) original);
-			User provider = e.getCreator();
-			return (provider.getPersonName() == null) ? "" : provider.getPersonName().getFullName();
-		} else {
-			return "";
-		}
+	protected HqlQueryBuilder getQuery(List<Integer> ids) {
+		HqlQueryBuilder q = new HqlQueryBuilder();
+		q.select("e.encounterId", "pn.givenName", "pn.middleName", "pn.familyName");
+		q.from(Encounter.class, "e");
+		q.from(PersonName.class, "pn");
+		q.where("pn.person.personId = e.creator.person.personId");
+		q.whereEqual("pn.voided", false);
+		q.whereIn("e.encounterId", ids);
+		q.orderAsc("pn.preferred");
+		q.orderDesc("pn.personNameId");
+		return q;
 	}
 
 	@Override
-	public Class<?> getInputDataType() {
-		return Integer.class;
+	protected Object convertRow(Object[] row) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 1; i < row.length; i++) {
+			if (StringUtils.isNotBlank((String) row[i])) {
+				names.add((String) row[i]);
+			}
+		}
+		return StringUtils.join(names, " ");
 	}
 
 	@Override
-	public Class<?> getDataType() {
-		return Object.class;
+	protected Object convertOne(Integer id) {
+		Encounter e = Context.getEncounterService().getEncounter(id);
+		if (e == null || e.getCreator() == null || e.getCreator().getPersonName() == null) {
+			return getMissingValue();
+		}
+		PersonName name = e.getCreator().getPersonName();
+		return convertRow(new Object[] { id, name.getGivenName(), name.getMiddleName(), name.getFamilyName() });
 	}
 }
@@ -0,0 +1,83 @@
+package org.openmrs.module.aijarreports.definition.data.converter;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.data.converter.DataConverter;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts a database id to a value read from the row it identifies. All the ids of a column can be resolved together
+ * with convertAll, which reads them in chunks of CHUNK_SIZE with a query projecting only the fields the value needs.
+ * A single id is converted from the entity the session loads, which is often in the session already, rather than
+ * with a query of its own
+ */
+public abstract class IdResolvingConverter implements DataConverter {
+
+	public static final int CHUNK_SIZE = 1000;
+
+	@Override
+	public Object convert(Object original) {
+		if (original == null) {
+			return getMissingValue();
+		}
+		return convertOne((Integer) original);
+	}
+
+	/**
+	 * @return the converted value of each id, or the missing value for ids that do not resolve to a row
+	 */
+	public Map<Integer, Object> convertAll(Collection<Integer> ids) {
+		Map<Integer, Object> ret = new HashMap<Integer, Object>();
+		List<Integer> idList = new ArrayList<Integer>(ids);
+		EvaluationService evaluationService = Context.getService(EvaluationService.class);
+		for (int start = 0; start < idList.size(); start += CHUNK_SIZE) {
+			List<Integer> chunk = idList.subList(start, Math.min(start + CHUNK_SIZE, idList.size()));
+			for (Object[] row : evaluationService.evaluateToList(getQuery(chunk), new EvaluationContext())) {
+				ret.put((Integer) row[0], convertRow(row));
+			}
+		}
+		for (Integer id : idList) {
+			if (!ret.containsKey(id)) {
+				ret.put(id, getMissingValue());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a query selecting the id first, then the fields convertRow needs, for the rows with the given ids
+	 */
+	protected abstract HqlQueryBuilder getQuery(List<Integer> ids);
+
+	protected abstract Object convertRow(Object[] row);
+
+	/**
+	 * @return the converted value of the entity with the given id, read through the session, or the missing value if
+	 * there is none
+	 */
+	protected abstract Object convertOne(Integer id);
+
+	/**
+	 * @return the value of a null id or of an id with no row
+	 */
+	protected Object getMissingValue() {
+		return "";
+	}
+
+	@Override
+	public Class<?> getInputDataType() {
+		return Integer.class;
+	}
+
+	@Override
+	public Class<?> getDataType() {
+		return Object.class;
+	}
+}
@@ -1,24 +1,83 @@
 package org.openmrs.module.aijarreports.definition.data.converter;
 
+import org.openmrs.Concept;
 import org.openmrs.Obs;
+import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.reporting.common.ObjectUtil;
-import org.openmrs.module.reporting.data.converter.DataConverter;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+
+import java.util.List;
 
 /**
  * Converts an Obs to it's value using its ID
  */
-public class ObsValueFromIdConverter implements DataConverter {
+public class ObsValueFromIdConverter extends IdResolvingConverter {
 
 	public ObsValueFromIdConverter() {
 	}
 
+	/**
+	 * Reads the question and value columns only. Concepts and drugs are read as ids, which do not join, and resolved
+	 * through the session so each distinct concept or drug is loaded once
+	 */
+	@Override
+	protected HqlQueryBuilder getQuery(List<Integer> ids) {
+		HqlQueryBuilder q = new HqlQueryBuilder();
+		q.select("o.obsId", "o.concept.conceptId", "o.valueCoded.conceptId", "o.valueComplex", "o.valueDatetime", "o.valueDrug.drugId", "o.valueNumeric", "o.valueText");
+		q.from(Obs.class, "o");
+		q.whereIn("o.obsId", ids);
+		return q;
+	}
+
+	@Override
+	protected Object getMissingValue() {
+		return null;
+	}
+
+	/**
+	 * Checks the values in the order convertObs does, a coded answer to a boolean question being true exactly when it is
+	 * the true concept. Any other obs convertObs would not take from these columns, such as an obs group, is loaded
+	 */
 	@Override
-	public Object convert(Object original) {
-		Obs o = (Obs) Context.getObsService().getObs((Integer) original);
-		if (o == null) {
-			return null;
+	protected Object convertRow(Object[] row) {
+		ConceptService cs = Context.getConceptService();
+		Concept question = cs.getConcept((Integer) row[1]);
+		if (question != null && question.getDatatype() != null && question.getDatatype().isBoolean()) {
+			if (row[2] == null) {
+				return convertOne((Integer) row[0]);
+			}
+			Concept trueConcept = cs.getTrueConcept();
+			return trueConcept != null && trueConcept.getConceptId().equals(row[2]);
+		}
+		if (row[2] != null) {
+			return ObjectUtil.format(cs.getConcept((Integer) row[2]));
+		}
+		if (row[3] != null) {
+			return row[3];
+		}
+		if (row[4] != null) {
+			return row[4];
+		}
+		if (row[5] != null) {
+			return ObjectUtil.format(cs.getDrug((Integer) row[5]));
+		}
+		if (row[6] != null) {
+			return row[6];
+		}
+		if (row[7] != null) {
+			return row[7];
 		}
+		return convertOne((Integer) row[0]);
+	}
+
+	@Override
+	protected Object convertOne(Integer id) {
+		Obs o = Context.getObsService().getObs(id);
+		return (o == null) ? getMissingValue() : convertObs(o);
+	}
+
+	protected Object convertObs(Obs o) {
 		if (o.getValueBoolean() != null) {
 			return o.getValueBoolean();
 		}
@@ -31,9 +90,6 @@ public class ObsValueFromIdConverter implements DataConverter {
 		if (o.getValueDatetime() != null) {
 			return o.getValueDatetime();
 		}
-		if (o.getValueDate() != null) {
-			return o.getValueDate();
-		}
 		if (o.getValueDrug() != null) {
 			return ObjectUtil.format(o.getValueDrug());
 		}
@@ -43,19 +99,6 @@ public class ObsValueFromIdConverter implements DataConverter {
 		if (o.getValueText() != null) {
 			return o.getValueText();
 		}
-		if (o.getValueTime() != null) {
-			return o.getValueTime();
-		}
 		return o.getValueAsString(Context.getLocale());
 	}
-
-	@Override
-	public Class<?> getInputDataType() {
-		return Integer.class;
-	}
-
-	@Override
-	public Class<?> getDataType() {
-		return Object.class;
-	}
 }
@@ -1,36 +1,36 @@
 package org.openmrs.module.aijarreports.definition.data.converter;
 
 import org.openmrs.Visit;
-import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.reporting.data.converter.DataConverter;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+
+import java.util.List;
 
 /**
  * Converts an visit id to visit uuid
  */
-public class VisitUUIDFromIdConverter implements DataConverter {
+public class VisitUUIDFromIdConverter extends IdResolvingConverter {
 
 	public VisitUUIDFromIdConverter() {
 	}
 
 	@Override
-	public Object convert(Object original) {
-		if (original != null) {
-			VisitService vs = Context.getVisitService();
-			Visit v = vs.getVisit((Integer) original);
-			return (v == null) ? "" : v.getUuid();
-		} else {
-			return "";
-		}
+	protected HqlQueryBuilder getQuery(List<Integer> ids) {
+		HqlQueryBuilder q = new HqlQueryBuilder();
+		q.select("v.visitId", "v.uuid");
+		q.from(Visit.class, "v");
+		q.whereIn("v.visitId", ids);
+		return q;
 	}
 
 	@Override
-	public Class<?> getInputDataType() {
-		return Integer.class;
+	protected Object convertRow(Object[] row) {
+		return row[1];
 	}
 
 	@Override
-	public Class<?> getDataType() {
-		return Object.class;
+	protected Object convertOne(Integer id) {
+		Visit v = Context.getVisitService().getVisit(id);
+		return (v == null) ? getMissingValue() : v.getUuid();
 	}
 }
@@ -14,7 +14,6 @@
 package org.openmrs.module.aijarreports.definition.data.converter;
 
 import org.openmrs.Concept;
-import org.openmrs.Obs;
 import org.openmrs.module.reporting.data.converter.DataConverter;
 
 /**
@@ -34,8 +33,7 @@ public class YesConverter implements DataConverter {
      * @see DataConverter#convert(Object)
      */
     public Object convert(Object original) {
-        Obs o = (Obs) original;
-        if (o != null) {
+        if (original != null) {
             return "Y";
         }
         return null;
@@ -0,0 +1,14 @@
+package org.openmrs.module.aijarreports.definition.data.definition;
+
+import org.openmrs.module.reporting.data.patient.definition.ConvertedPatientDataDefinition;
+
+/**
+ * A converted patient data definition whose id resolving converters are applied to the whole column at once
+ * instead of to one value at a time
+ */
+public class BatchConvertedPatientDataDefinition extends ConvertedPatientDataDefinition {
+
+    public BatchConvertedPatientDataDefinition() {
+        super();
+    }
+}
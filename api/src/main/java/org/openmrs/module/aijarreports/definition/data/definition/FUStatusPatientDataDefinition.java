@@ -6,6 +6,7 @@ import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinitio
 import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,6 +35,13 @@ public class FUStatusPatientDataDefinition extends BaseDataDefinition implements
     @ConfigurationProperty
     private int periodToAdd = 0;
 
+    /**
+     * When set, the follow up status for all of these period offsets is computed together and shared by every
+     * definition asking for the same offsets
+     */
+    @ConfigurationProperty
+    private List<Integer> batchPeriodsToAdd;
+
     public Date getStartDate() {
         return startDate;
     }
@@ -57,4 +65,12 @@ public class FUStatusPatientDataDefinition extends BaseDataDefinition implements
     public void setPeriodToAdd(int periodToAdd) {
         this.periodToAdd = periodToAdd;
     }
+
+    public List<Integer> getBatchPeriodsToAdd() {
+        return batchPeriodsToAdd;
+    }
+
+    public void setBatchPeriodsToAdd(List<Integer> batchPeriodsToAdd) {
+        this.batchPeriodsToAdd = batchPeriodsToAdd;
+    }
 }
@@ -0,0 +1,115 @@
+package org.openmrs.module.aijarreports.definition.data.definition;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.module.aijarreports.common.Period;
+import org.openmrs.module.reporting.common.TimeQualifier;
+import org.openmrs.module.reporting.data.BaseDataDefinition;
+import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
+import org.openmrs.module.reporting.evaluation.caching.Caching;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One cell of a longitudinal obs grid (e.g. CPT in month 12 of the ART register).
+ * All definitions sharing the same startDate, period, numberOfPeriods, concepts and whichObs are filled from a single
+ * scan of the obs table over the whole window
+ */
+@Caching(
+        strategy = ConfigurationPropertyCachingStrategy.class
+)
+public class LongitudinalObsPivotDataDefinition extends BaseDataDefinition implements PatientDataDefinition {
+
+    @ConfigurationProperty
+    private Date startDate;
+
+    @ConfigurationProperty
+    private Period period = Period.MONTHLY;
+
+    @ConfigurationProperty
+    private int numberOfPeriods = 1;
+
+    @ConfigurationProperty
+    private List<Concept> concepts;
+
+    @ConfigurationProperty
+    private Concept question;
+
+    @ConfigurationProperty
+    private int periodToAdd = 0;
+
+    @ConfigurationProperty
+    private TimeQualifier whichObs = TimeQualifier.LAST;
+
+    public LongitudinalObsPivotDataDefinition() {
+        super();
+    }
+
+    public LongitudinalObsPivotDataDefinition(String name) {
+        super(name);
+    }
+
+    @Override
+    public Class<?> getDataType() {
+        return Obs.class;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    public Period getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(Period period) {
+        this.period = period;
+    }
+
+    public int getNumberOfPeriods() {
+        return numberOfPeriods;
+    }
+
+    public void setNumberOfPeriods(int numberOfPeriods) {
+        this.numberOfPeriods = numberOfPeriods;
+    }
+
+    public List<Concept> getConcepts() {
+        return concepts;
+    }
+
+    public void setConcepts(List<Concept> concepts) {
+        this.concepts = concepts;
+    }
+
+    public Concept getQuestion() {
+        return question;
+    }
+
+    public void setQuestion(Concept question) {
+        this.question = question;
+    }
+
+    public int getPeriodToAdd() {
+        return periodToAdd;
+    }
+
+    public void setPeriodToAdd(int periodToAdd) {
+        this.periodToAdd = periodToAdd;
+    }
+
+    public TimeQualifier getWhichObs() {
+        return whichObs;
+    }
+
+    public void setWhichObs(TimeQualifier whichObs) {
+        this.whichObs = whichObs;
+    }
+}
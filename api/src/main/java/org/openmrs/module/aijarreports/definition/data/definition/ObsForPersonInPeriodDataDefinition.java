@@ -3,6 +3,7 @@ package org.openmrs.module.aijarreports.definition.data.definition;
 import org.openmrs.Concept;
 import org.openmrs.EncounterType;
 import org.openmrs.Obs;
+import org.openmrs.module.aijarreports.common.ObsValue;
 import org.openmrs.module.aijarreports.common.Period;
 import org.openmrs.module.reporting.common.TimeQualifier;
 import org.openmrs.module.reporting.data.BaseDataDefinition;
@@ -37,6 +38,13 @@ public class ObsForPersonInPeriodDataDefinition extends BaseDataDefinition imple
     @ConfigurationProperty
     private int periodToAdd = 0;
 
+    /**
+     * When set, only these value fields are read and each patient's data is an ObsValue instead of an Obs.
+     * An empty list reads just the obs date, for converters which only check that an obs exists
+     */
+    @ConfigurationProperty
+    private List<ObsValue.Field> valueFields;
+
 
     public ObsForPersonInPeriodDataDefinition() {
         super();
@@ -48,6 +56,9 @@ public class ObsForPersonInPeriodDataDefinition extends BaseDataDefinition imple
 
     @Override
     public Class<?> getDataType() {
+        if (valueFields != null) {
+            return ObsValue.class;
+        }
         return Obs.class;
     }
 
@@ -106,4 +117,12 @@ public class ObsForPersonInPeriodDataDefinition extends BaseDataDefinition imple
     public void setPeriodToAdd(int periodToAdd) {
         this.periodToAdd = periodToAdd;
     }
+
+    public List<ObsValue.Field> getValueFields() {
+        return valueFields;
+    }
+
+    public void setValueFields(List<ObsValue.Field> valueFields) {
+        this.valueFields = valueFields;
+    }
 }
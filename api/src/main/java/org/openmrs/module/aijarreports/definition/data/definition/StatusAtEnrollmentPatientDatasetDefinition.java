@@ -1,15 +1,38 @@
 package org.openmrs.module.aijarreports.definition.data.definition;
 
+import org.openmrs.Obs;
 import org.openmrs.module.reporting.data.BaseDataDefinition;
 import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
 
+import java.util.Date;
 import java.util.Map;
 
 /**
  * Created by carapai on 16/05/2016.
+ *
+ * Status at enrollment from the ART summary page (TI, PREGNANT, TB, LACTATING, EID). Without a status the value is the
+ * map of every status of the patient, with a status it is the obs of that status alone. Both are answered from the
+ * same evaluation
  */
 public class StatusAtEnrollmentPatientDatasetDefinition extends BaseDataDefinition implements PatientDataDefinition {
 
+    public static final String TI = "TI";
+
+    public static final String PREGNANT = "PREGNANT";
+
+    public static final String TB = "TB";
+
+    public static final String LACTATING = "LACTATING";
+
+    public static final String EID = "EID";
+
+    @ConfigurationProperty
+    private Date startDate;
+
+    @ConfigurationProperty(required = false)
+    private String status;
+
     public StatusAtEnrollmentPatientDatasetDefinition() {
         super();
     }
@@ -20,6 +43,22 @@ public class StatusAtEnrollmentPatientDatasetDefinition extends BaseDataDefiniti
 
     @Override
     public Class<?> getDataType() {
-        return Map.class;
+        return status == null ? Map.class : Obs.class;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
     }
 }
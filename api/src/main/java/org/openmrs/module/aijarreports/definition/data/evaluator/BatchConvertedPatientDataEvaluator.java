@@ -0,0 +1,113 @@
+package org.openmrs.module.aijarreports.definition.data.evaluator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.aijarreports.definition.data.converter.IdResolvingConverter;
+import org.openmrs.module.aijarreports.definition.data.definition.BatchConvertedPatientDataDefinition;
+import org.openmrs.module.reporting.data.converter.DataConverter;
+import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
+import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
+import org.openmrs.module.reporting.data.patient.evaluator.PatientDataEvaluator;
+import org.openmrs.module.reporting.data.patient.service.PatientDataService;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a BatchConvertedPatientDataDefinition. Each id resolving converter resolves all the distinct ids of the
+ * column in a few chunked queries, and the values it resolved are kept for the rest of the run so other columns and
+ * patient batches using the same converter only query the ids not seen yet. Other converters are applied value by value
+ */
+@Handler(supports = BatchConvertedPatientDataDefinition.class, order = 50)
+public class BatchConvertedPatientDataEvaluator implements PatientDataEvaluator {
+
+    protected static final Log log = LogFactory.getLog(BatchConvertedPatientDataEvaluator.class);
+
+    public static final String RESOLVED = BatchConvertedPatientDataEvaluator.class.getName() + ":resolved";
+
+    @Autowired
+    private PatientDataService patientDataService;
+
+    @Override
+    public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
+        BatchConvertedPatientDataDefinition def = (BatchConvertedPatientDataDefinition) definition;
+        EvaluatedPatientData unconverted = patientDataService.evaluate(def.getDefinitionToConvert(), context);
+        if (def.getConverters() == null || def.getConverters().isEmpty()) {
+            return unconverted;
+        }
+
+        Map<Integer, Object> data = unconverted.getData();
+        for (DataConverter converter : def.getConverters()) {
+            if (converter instanceof IdResolvingConverter) {
+                data = resolve((IdResolvingConverter) converter, data, context);
+            } else {
+                Map<Integer, Object> converted = new LinkedHashMap<Integer, Object>();
+                for (Map.Entry<Integer, Object> e : data.entrySet()) {
+                    converted.put(e.getKey(), converter.convert(e.getValue()));
+                }
+                data = converted;
+            }
+        }
+
+        EvaluatedPatientData ret = new EvaluatedPatientData(def, context);
+        ret.setData(data);
+        return ret;
+    }
+
+    protected Map<Integer, Object> resolve(IdResolvingConverter converter, Map<Integer, Object> data, EvaluationContext context) {
+        Map<Integer, Object> resolved = getResolved(converter, context);
+        Set<Integer> pending = new HashSet<Integer>();
+        for (Object id : data.values()) {
+            if (id != null && !resolved.containsKey(id)) {
+                pending.add((Integer) id);
+            }
+        }
+        if (!pending.isEmpty()) {
+            log.debug("Resolving " + pending.size() + " ids with " + converter.getClass().getSimpleName());
+            resolved.putAll(converter.convertAll(pending));
+        }
+
+        Map<Integer, Object> converted = new LinkedHashMap<Integer, Object>();
+        for (Map.Entry<Integer, Object> e : data.entrySet()) {
+            converted.put(e.getKey(), e.getValue() == null ? converter.convert(null) : resolved.get(e.getValue()));
+        }
+        return converted;
+    }
+
+    protected Map<Integer, Object> getResolved(IdResolvingConverter converter, EvaluationContext context) {
+        Map<String, Map<Integer, Object>> registry = getRegistry(context);
+        Map<Integer, Object> resolved = registry.get(converter.getClass().getName());
+        if (resolved == null) {
+            resolved = new HashMap<Integer, Object>();
+            registry.put(converter.getClass().getName(), resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Lets a context evaluating part of a run, such as one batch of patients, use the values already resolved for the run
+     */
+    public static void shareResolved(EvaluationContext from, EvaluationContext to) {
+        to.addToCache(RESOLVED, getRegistry(from));
+    }
+
+    /**
+     * @return the values resolved during the run, by converter class name
+     */
+    @SuppressWarnings("unchecked")
+    protected static Map<String, Map<Integer, Object>> getRegistry(EvaluationContext context) {
+        Map<String, Map<Integer, Object>> registry = (Map<String, Map<Integer, Object>>) context.getFromCache(RESOLVED);
+        if (registry == null) {
+            registry = new HashMap<String, Map<Integer, Object>>();
+            context.addToCache(RESOLVED, registry);
+        }
+        return registry;
+    }
+}
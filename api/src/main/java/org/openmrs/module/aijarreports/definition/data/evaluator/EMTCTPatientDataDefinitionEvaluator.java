@@ -3,8 +3,9 @@ package org.openmrs.module.aijarreports.definition.data.evaluator;
 import org.openmrs.Obs;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.aijarreports.definition.data.definition.EMTCTPatientDataDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.PatientObsSequence;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
-import org.openmrs.module.reporting.common.ListMap;
 import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
 import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
 import org.openmrs.module.reporting.data.patient.evaluator.PatientDataEvaluator;
@@ -12,12 +13,18 @@ import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
 import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
  * Created by carapai on 15/07/2016.
+ *
+ * The EDD obs of each patient are read once per run, one per distinct EDD in EDD order, and every pregnancy number
+ * column picks its obs from that sequence
  */
 @Handler(supports = EMTCTPatientDataDefinition.class, order = 50)
 
@@ -29,34 +36,47 @@ public class EMTCTPatientDataDefinitionEvaluator implements PatientDataEvaluator
     @Autowired
     private EvaluationService evaluationService;
 
+    @Autowired
+    private CohortBinder cohortBinder;
+
     @Override
     public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
         EMTCTPatientDataDefinition def = (EMTCTPatientDataDefinition) definition;
         EvaluatedPatientData c = new EvaluatedPatientData(def, context);
-        HqlQueryBuilder q = new HqlQueryBuilder();
-        q.select("o.personId", "o");
-        q.from(Obs.class, "o");
-        q.wherePersonIn("o.personId", context);
-        q.whereEqual("o.concept", hivMetadata.getEDD());
-        q.whereGreaterOrEqualTo("o.obsDatetime", def.getOnDate());
-        q.groupBy("o.personId");
-        q.groupBy("o.valueDatetime");
-
-        List<Object[]> queryResult = evaluationService.evaluateToList(q, context);
-
-        ListMap<Integer, Obs> obsForPatients = new ListMap<Integer, Obs>();
+        c.getData().putAll(getPregnancies(def.getOnDate(), context).getAt(def.getPregnancyNo()));
+        return c;
+    }
 
-        for (Object[] row : queryResult) {
-            obsForPatients.putInList((Integer) row[0], (Obs) row[1]);
-        }
+    protected PatientObsSequence getPregnancies(Date onDate, EvaluationContext context) {
+        String cacheKey = PatientObsSequence.class.getName() + ":edd:" + (onDate == null ? "" : onDate.getTime());
+        PatientObsSequence pregnancies = (PatientObsSequence) context.getFromCache(cacheKey);
+        if (pregnancies == null || !pregnancies.covers(context.getBaseCohort())) {
+            List<Object[]> queryResult = new ArrayList<Object[]>();
+            for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+                HqlQueryBuilder q = new HqlQueryBuilder();
+                q.select("o.personId", "o");
+                q.from(Obs.class, "o");
+                chunk.wherePersonIn(q, "o.personId");
+                q.whereEqual("o.concept", hivMetadata.getEDD());
+                q.whereGreaterOrEqualTo("o.obsDatetime", onDate);
+                q.orderAsc("o.personId");
+                q.orderAsc("o.valueDatetime");
+                q.orderAsc("o.obsDatetime");
+                queryResult.addAll(evaluationService.evaluateToList(q, context));
+            }
 
-        for (Integer pId : obsForPatients.keySet()) {
-            List<Obs> l = obsForPatients.get(pId);
-            if(obsForPatients.size() > def.getPregnancyNo()){
-                Obs obs = l.get(def.getPregnancyNo());
-                c.addData(pId, obs);
+            // the same EDD is usually recorded at several visits of a pregnancy, keep its first obs
+            pregnancies = new PatientObsSequence(context.getBaseCohort());
+            for (Object[] row : queryResult) {
+                Integer pId = (Integer) row[0];
+                Obs obs = (Obs) row[1];
+                Obs last = pregnancies.getLast(pId);
+                if (last == null || !OpenmrsUtil.nullSafeEquals(last.getValueDatetime(), obs.getValueDatetime())) {
+                    pregnancies.add(pId, obs);
+                }
             }
+            context.addToCache(cacheKey, pregnancies);
         }
-        return c;
+        return pregnancies;
     }
 }
@@ -2,23 +2,29 @@ package org.openmrs.module.aijarreports.definition.data.evaluator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.joda.time.Days;
 import org.joda.time.LocalDate;
+import org.openmrs.Encounter;
 import org.openmrs.Obs;
+import org.openmrs.Person;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.aijarreports.common.PatientData;
 import org.openmrs.module.aijarreports.common.Period;
 import org.openmrs.module.aijarreports.common.Periods;
 import org.openmrs.module.aijarreports.common.StubDate;
 import org.openmrs.module.aijarreports.definition.data.definition.FUStatusPatientDataDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.EvaluationIndexes;
+import org.openmrs.module.aijarreports.evaluation.FUStatusBatch;
+import org.openmrs.module.aijarreports.evaluation.PatientDateIndex;
 import org.openmrs.module.aijarreports.library.HIVPatientDataLibrary;
 import org.openmrs.module.aijarreports.library.PatientDatasets;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
 import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.common.ListMap;
 import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
 import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
-import org.openmrs.module.reporting.data.patient.definition.SqlPatientDataDefinition;
 import org.openmrs.module.reporting.data.patient.evaluator.PatientDataEvaluator;
-import org.openmrs.module.reporting.data.patient.evaluator.SqlPatientDataEvaluator;
 import org.openmrs.module.reporting.data.patient.service.PatientDataService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
@@ -26,6 +32,8 @@ import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
 import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -48,10 +56,13 @@ public class FUStatusPatientDataDefinitionEvaluator implements PatientDataEvalua
     private EvaluationService evaluationService;
 
     @Autowired
-    private SqlPatientDataEvaluator sqlPatientDataEvaluator;
+    private HIVMetadata hivMetadata;
 
     @Autowired
-    private HIVMetadata hivMetadata;
+    private CohortBinder cohortBinder;
+
+    @Autowired
+    private EvaluationIndexes evaluationIndexes;
 
     @Override
     public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
@@ -63,26 +74,26 @@ public class FUStatusPatientDataDefinitionEvaluator implements PatientDataEvalua
             return c;
         }
 
+        if (def.getBatchPeriodsToAdd() != null && def.getBatchPeriodsToAdd().contains(def.getPeriodToAdd())) {
+            FUStatusBatch batch = getBatch(def, context);
+            for (Map.Entry<Integer, PatientData> e : batch.getData(def.getPeriodToAdd()).entrySet()) {
+                if (context.getBaseCohort() == null || context.getBaseCohort().contains(e.getKey())) {
+                    c.addData(e.getKey(), e.getValue());
+                }
+            }
+            return c;
+        }
+
         Period period = def.getPeriod();
 
         Date anotherDate = def.getStartDate();
 
-        Map<Integer, Date> m = new HashMap<Integer, Date>();
-
         LocalDate workingDate = StubDate.dateOf(DateUtil.formatDate(anotherDate, "yyyy-MM-dd"));
 
 
         LocalDate localStartDate = null;
         LocalDate localEndDate = null;
 
-        HqlQueryBuilder artStartQuery = new HqlQueryBuilder();
-        artStartQuery.select("o.personId", "MIN(o.valueDatetime)");
-        artStartQuery.from(Obs.class, "o");
-        artStartQuery.wherePersonIn("o.personId", context);
-        artStartQuery.whereIn("o.concept", hivMetadata.getConceptList("99161"));
-        artStartQuery.groupBy("o.personId");
-
-
         if (def.getPeriodToAdd() > 0) {
             if (period == Period.QUARTERLY) {
                 List<LocalDate> dates = Periods.addQuarters(workingDate, def.getPeriodToAdd());
@@ -109,76 +120,229 @@ public class FUStatusPatientDataDefinitionEvaluator implements PatientDataEvalua
             }
         }
 
+        PatientDateIndex artStartDates = null;
         if (period == Period.QUARTERLY) {
-            m = getPatientDateMap(artStartQuery, context);
+            artStartDates = evaluationIndexes.getArtStartDates(context);
         }
 
 
-        SqlPatientDataDefinition sqlPatientDataDefinition = PatientDatasets.getFUStatus(localStartDate.toDate(), localEndDate.toDate());
-        EvaluatedPatientData data = sqlPatientDataEvaluator.evaluate(sqlPatientDataDefinition, context);
+        // a loaded cohort is joined on its key, otherwise the query is run once per inline chunk of the cohort
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            rows.addAll(evaluationService.evaluateToList(PatientDatasets.getFUStatus(localStartDate.toDate(), localEndDate.toDate(), chunk.getCohortKey(), chunk.getInlinePatientIds()), context));
+        }
 
+        for (Object[] row : rows) {
+            Integer pId = ((Number) row[0]).intValue();
+            PatientData patientData = (PatientData) c.getData().get(pId);
+            if (patientData == null) {
+                patientData = new PatientData();
+                patientData.setPeriod(period);
+                patientData.setPeriodDate(localEndDate.toDate());
 
-        Map<Integer, Object> evaluatedData = data.getData();
+                if (artStartDates != null && artStartDates.contains(pId)) {
+                    patientData.setArtStartDate(artStartDates.get(pId));
+                }
 
-        for (Integer pId : evaluatedData.keySet()) {
-            Object o = evaluatedData.get(pId);
-            if (o != null) {
-                String dt = (String) o;
+                if (row[1] != null) {
+                    patientData.setEncounterDate((Date) row[1]);
+                }
 
-                if (dt != null) {
-                    String[] splitString = dt.split(",");
-                    String s0 = splitString[0];
-                    String s1 = splitString[1];
-                    String s2 = splitString[2];
-                    String s3 = splitString[3];
-                    String s4 = splitString[4];
-                    String s5 = splitString[5];
+                if (row[2] != null) {
+                    patientData.setNumberOfSinceLastVisit(((Number) row[2]).intValue());
+                }
 
-                    PatientData patientData = new PatientData();
-                    patientData.setPeriod(period);
-                    patientData.setPeriodDate(localEndDate.toDate());
+                if (row[3] != null) {
+                    patientData.setDeathDate((Date) row[3]);
+                }
 
-                    if (m.containsKey(pId)) {
-                        patientData.setArtStartDate(m.get(pId));
-                    }
+                if (row[5] != null) {
+                    patientData.setNextVisitDate((Date) row[5]);
+                }
 
-                    if (!s0.equalsIgnoreCase("-")) {
-                        Date encounterDate = DateUtil.parseDate(s0, "yyyy-MM-dd");
-                        patientData.setEncounterDate(encounterDate);
-                    }
+                if (row[6] != null) {
+                    patientData.setArtStartDate((Date) row[6]);
+                }
 
-                    if (!s1.equalsIgnoreCase("-")) {
-                        Integer numberOfSinceLastVisit = Integer.valueOf(s1);
-                        patientData.setNumberOfSinceLastVisit(numberOfSinceLastVisit);
-                    }
+                c.addData(pId, patientData);
+            }
 
-                    if (!s2.equalsIgnoreCase("-")) {
-                        Date deathDate = DateUtil.parseDate(s2, "yyyy-MM-dd");
-                        patientData.setDeathDate(deathDate);
-                    }
+            if (row[4] != null) {
+                patientData.setTransferredOut(true);
+            }
+        }
+        return c;
+    }
 
-                    if (!s3.equalsIgnoreCase("-")) {
-                        boolean transferredOut = true;
-                        patientData.setTransferredOut(transferredOut);
-                    }
+    protected FUStatusBatch getBatch(FUStatusPatientDataDefinition def, EvaluationContext context) {
+        StringBuilder cacheKey = new StringBuilder(FUStatusBatch.class.getName());
+        cacheKey.append(":").append(def.getPeriod());
+        cacheKey.append(":").append(DateUtil.formatDate(def.getStartDate(), "yyyy-MM-dd"));
+        cacheKey.append(":").append(def.getBatchPeriodsToAdd());
 
-                    if (!s4.equalsIgnoreCase("-")) {
-                        Date nextVisitDate = DateUtil.parseDate(s4, "yyyy-MM-dd");
-                        patientData.setNextVisitDate(nextVisitDate);
-                    }
+        FUStatusBatch batch = (FUStatusBatch) context.getFromCache(cacheKey.toString());
+        if (batch == null || !batch.covers(context.getBaseCohort())) {
+            batch = evaluateBatch(def.getPeriod(), def.getStartDate(), def.getBatchPeriodsToAdd(), context);
+            context.addToCache(cacheKey.toString(), batch);
+        }
+        return batch;
+    }
 
-                    if (!s5.equalsIgnoreCase("-")) {
-                        Date artStartDate = DateUtil.parseDate(s5, "yyyy-MM-dd");
-                        patientData.setArtStartDate(artStartDate);
-                    }
+    /**
+     * Computes the follow up status of every patient for each of the given period offsets.
+     * Encounters, appointments, deaths, transfers out and ART start dates are each read once for the whole window,
+     * sorted per patient, and every period is then answered from those arrays.
+     * Date comparisons follow the single period SQL in PatientDatasets.getFUStatus
+     */
+    public FUStatusBatch evaluateBatch(Period period, Date startDate, List<Integer> periodsToAdd, EvaluationContext context) {
+        FUStatusBatch batch = new FUStatusBatch(context.getBaseCohort());
+
+        LocalDate workingDate = StubDate.dateOf(DateUtil.formatDate(startDate, "yyyy-MM-dd"));
+
+        int numberOfPeriods = periodsToAdd.size();
+        LocalDate[] periodEnds = new LocalDate[numberOfPeriods];
+        long[] starts = new long[numberOfPeriods];
+        long[] ends = new long[numberOfPeriods];
+        long windowStart = Long.MAX_VALUE;
+        long windowEnd = Long.MIN_VALUE;
+
+        for (int i = 0; i < numberOfPeriods; i++) {
+            List<LocalDate> dates = Periods.periodDates(period, workingDate, periodsToAdd.get(i));
+            periodEnds[i] = dates.get(1);
+            starts[i] = dates.get(0).toDate().getTime();
+            ends[i] = dates.get(1).toDate().getTime();
+            windowStart = Math.min(windowStart, starts[i]);
+            windowEnd = Math.max(windowEnd, ends[i]);
+        }
 
-                    c.addData(pId, patientData);
-                } else {
-                    c.addData(pId, new PatientData());
+        List<Integer> patientIds = new ArrayList<Integer>();
+        Map<Integer, long[]> encounters = new HashMap<Integer, long[]>();
+        Map<Integer, long[]> appointments = new HashMap<Integer, long[]>();
+        Map<Integer, Date> transfersOut = new HashMap<Integer, Date>();
+        Map<Integer, Date> deaths = new HashMap<Integer, Date>();
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            HqlQueryBuilder patientQuery = new HqlQueryBuilder();
+            patientQuery.select("distinct e.patient.patientId");
+            patientQuery.from(Encounter.class, "e");
+            chunk.wherePersonIn(patientQuery, "e.patient.patientId");
+            patientIds.addAll(evaluationService.evaluateToList(patientQuery, Integer.class, context));
+
+            HqlQueryBuilder encounterQuery = new HqlQueryBuilder();
+            encounterQuery.select("e.patient.patientId", "e.encounterDatetime");
+            encounterQuery.from(Encounter.class, "e");
+            chunk.wherePersonIn(encounterQuery, "e.patient.patientId");
+            encounterQuery.whereBetweenInclusive("e.encounterDatetime", new Date(windowStart), new Date(windowEnd));
+            encounters.putAll(getSortedTimes(encounterQuery, context));
+
+            HqlQueryBuilder appointmentQuery = new HqlQueryBuilder();
+            appointmentQuery.select("o.personId", "o.valueDatetime");
+            appointmentQuery.from(Obs.class, "o");
+            chunk.wherePersonIn(appointmentQuery, "o.personId");
+            appointmentQuery.whereEqual("o.concept", hivMetadata.getReturnVisitDate());
+            appointments.putAll(getSortedTimes(appointmentQuery, context));
+
+            HqlQueryBuilder transferOutQuery = new HqlQueryBuilder();
+            transferOutQuery.select("o.personId", "MIN(o.obsDatetime)");
+            transferOutQuery.from(Obs.class, "o");
+            chunk.wherePersonIn(transferOutQuery, "o.personId");
+            transferOutQuery.whereIn("o.concept", hivMetadata.getConceptList("90306"));
+            transferOutQuery.whereNotNull("o.valueCoded");
+            transferOutQuery.groupBy("o.personId");
+            transfersOut.putAll(getPatientDateMap(transferOutQuery, context));
+
+            HqlQueryBuilder deathQuery = new HqlQueryBuilder();
+            deathQuery.select("p.personId", "p.deathDate");
+            deathQuery.from(Person.class, "p");
+            chunk.wherePersonIn(deathQuery, "p.personId");
+            deathQuery.whereNotNull("p.deathDate");
+            deaths.putAll(getPatientDateMap(deathQuery, context));
+        }
+
+        PatientDateIndex artStartDates = evaluationIndexes.getArtStartDates(context);
+
+        for (Integer pId : patientIds) {
+            long[] patientEncounters = encounters.get(pId);
+            long[] patientAppointments = appointments.get(pId);
+            Date transferOutDate = transfersOut.get(pId);
+            Date deathDate = deaths.get(pId);
+            Date artStartDate = artStartDates.get(pId);
+
+            for (int i = 0; i < numberOfPeriods; i++) {
+                PatientData patientData = new PatientData();
+                patientData.setPeriod(period);
+                patientData.setPeriodDate(periodEnds[i].toDate());
+
+                if (artStartDate != null) {
+                    patientData.setArtStartDate(DateUtil.getStartOfDay(artStartDate));
+                }
+
+                int lastEncounter = lastAtOrBefore(patientEncounters, ends[i]);
+                if (lastEncounter >= 0 && patientEncounters[lastEncounter] >= starts[i]) {
+                    patientData.setEncounterDate(DateUtil.getStartOfDay(new Date(patientEncounters[lastEncounter])));
+                }
+
+                int lastAppointment = lastAtOrBefore(patientAppointments, ends[i]);
+                if (lastAppointment >= 0) {
+                    LocalDate appointmentDate = LocalDate.fromDateFields(new Date(patientAppointments[lastAppointment]));
+                    patientData.setNumberOfSinceLastVisit(Days.daysBetween(appointmentDate, periodEnds[i]).getDays());
+                }
+
+                if (deathDate != null && deathDate.getTime() >= starts[i] && deathDate.getTime() <= ends[i]) {
+                    patientData.setDeathDate(DateUtil.getStartOfDay(deathDate));
+                }
+
+                if (transferOutDate != null && transferOutDate.getTime() <= ends[i]) {
+                    patientData.setTransferredOut(true);
+                }
+
+                if (patientAppointments != null && lastAppointment + 1 < patientAppointments.length) {
+                    patientData.setNextVisitDate(DateUtil.getStartOfDay(new Date(patientAppointments[lastAppointment + 1])));
                 }
+
+                batch.addData(periodsToAdd.get(i), pId, patientData);
             }
         }
-        return c;
+        return batch;
+    }
+
+    /**
+     * @return the index of the last time which is on or before the given time, -1 if there is none
+     */
+    protected int lastAtOrBefore(long[] times, long time) {
+        if (times == null) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(times, time);
+        if (i < 0) {
+            return -i - 2;
+        }
+        while (i + 1 < times.length && times[i + 1] == time) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Runs a query returning patient ids and dates and collects each patient's dates into a sorted array
+     */
+    protected Map<Integer, long[]> getSortedTimes(HqlQueryBuilder query, EvaluationContext context) {
+        ListMap<Integer, Date> datesForPatients = new ListMap<Integer, Date>();
+        for (Object[] row : evaluationService.evaluateToList(query, context)) {
+            if (row[1] != null) {
+                datesForPatients.putInList((Integer) row[0], (Date) row[1]);
+            }
+        }
+        Map<Integer, long[]> m = new HashMap<Integer, long[]>();
+        for (Integer pId : datesForPatients.keySet()) {
+            List<Date> dates = datesForPatients.get(pId);
+            long[] times = new long[dates.size()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = dates.get(i).getTime();
+            }
+            Arrays.sort(times);
+            m.put(pId, times);
+        }
+        return m;
     }
 
     protected Map<Integer, Date> getPatientDateMap(HqlQueryBuilder query, EvaluationContext context) {
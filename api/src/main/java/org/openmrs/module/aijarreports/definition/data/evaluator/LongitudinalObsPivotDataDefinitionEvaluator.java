@@ -0,0 +1,129 @@
+package org.openmrs.module.aijarreports.definition.data.evaluator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.LocalDate;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.aijarreports.common.Periods;
+import org.openmrs.module.aijarreports.common.StubDate;
+import org.openmrs.module.aijarreports.definition.data.definition.LongitudinalObsPivotDataDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.LongitudinalObsPivot;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.common.TimeQualifier;
+import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
+import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
+import org.openmrs.module.reporting.data.patient.evaluator.PatientDataEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Evaluates a LongitudinalObsPivotDataDefinition by looking up its cell in a pivot which is built on first use and
+ * then shared, through the context cache, by every other cell over the same window and concepts
+ */
+@Handler(supports = LongitudinalObsPivotDataDefinition.class, order = 50)
+public class LongitudinalObsPivotDataDefinitionEvaluator implements PatientDataEvaluator {
+
+    protected static final Log log = LogFactory.getLog(LongitudinalObsPivotDataDefinitionEvaluator.class);
+
+    @Autowired
+    private EvaluationService evaluationService;
+
+    @Autowired
+    private CohortBinder cohortBinder;
+
+    @Override
+    public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
+        LongitudinalObsPivotDataDefinition def = (LongitudinalObsPivotDataDefinition) definition;
+
+        EvaluatedPatientData c = new EvaluatedPatientData(def, context);
+
+        if (context.getBaseCohort() != null && context.getBaseCohort().isEmpty()) {
+            return c;
+        }
+
+        LongitudinalObsPivot pivot = getPivot(def, context);
+        Integer questionId = def.getQuestion().getConceptId();
+
+        for (Integer pId : pivot.getPatientIds()) {
+            if (context.getBaseCohort() == null || context.getBaseCohort().contains(pId)) {
+                Object value = pivot.get(pId, questionId, def.getPeriodToAdd());
+                if (value != null) {
+                    c.addData(pId, value);
+                }
+            }
+        }
+        return c;
+    }
+
+    protected LongitudinalObsPivot getPivot(LongitudinalObsPivotDataDefinition def, EvaluationContext context) {
+        String cacheKey = getCacheKey(def);
+        LongitudinalObsPivot pivot = (LongitudinalObsPivot) context.getFromCache(cacheKey);
+        if (pivot == null || !pivot.covers(context.getBaseCohort())) {
+            pivot = buildPivot(def, context);
+            context.addToCache(cacheKey, pivot);
+        }
+        return pivot;
+    }
+
+    protected LongitudinalObsPivot buildPivot(LongitudinalObsPivotDataDefinition def, EvaluationContext context) {
+        LocalDate workingDate = StubDate.dateOf(DateUtil.formatDate(def.getStartDate(), "yyyy-MM-dd"));
+
+        Date[] periodStarts = new Date[def.getNumberOfPeriods()];
+        Date[] periodEnds = new Date[def.getNumberOfPeriods()];
+        for (int i = 0; i < def.getNumberOfPeriods(); i++) {
+            List<LocalDate> dates = Periods.periodDates(def.getPeriod(), workingDate, i);
+            periodStarts[i] = dates.get(0).toDate();
+            periodEnds[i] = DateUtil.getEndOfDay(dates.get(1).toDate());
+        }
+
+        List<Integer> conceptIds = new ArrayList<Integer>();
+        for (Concept concept : def.getConcepts()) {
+            conceptIds.add(concept.getConceptId());
+        }
+
+        LongitudinalObsPivot pivot = new LongitudinalObsPivot(conceptIds, periodStarts, periodEnds, def.getWhichObs() != TimeQualifier.FIRST, context.getBaseCohort());
+
+        int obsCount = 0;
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            HqlQueryBuilder q = new HqlQueryBuilder();
+            q.select("o.personId", "o.concept.conceptId", "o.obsDatetime", "o");
+            q.from(Obs.class, "o");
+            chunk.wherePersonIn(q, "o.personId");
+            q.whereIn("o.concept", def.getConcepts());
+            q.whereBetweenInclusive("o.obsDatetime", periodStarts[0], periodEnds[periodEnds.length - 1]);
+            q.orderAsc("o.obsDatetime");
+            q.orderAsc("o.obsId");
+
+            List<Object[]> queryResult = evaluationService.evaluateToList(q, context);
+            for (Object[] row : queryResult) {
+                pivot.add((Integer) row[0], (Integer) row[1], (Date) row[2], row[3]);
+            }
+            obsCount += queryResult.size();
+        }
+
+        log.debug("Built obs pivot of " + obsCount + " obs over " + def.getNumberOfPeriods() + " periods");
+        return pivot;
+    }
+
+    protected String getCacheKey(LongitudinalObsPivotDataDefinition def) {
+        StringBuilder key = new StringBuilder(LongitudinalObsPivot.class.getName());
+        key.append(":").append(def.getPeriod());
+        key.append(":").append(DateUtil.formatDate(def.getStartDate(), "yyyy-MM-dd"));
+        key.append(":").append(def.getNumberOfPeriods());
+        key.append(":").append(def.getWhichObs());
+        for (Concept concept : def.getConcepts()) {
+            key.append(":").append(concept.getConceptId());
+        }
+        return key.toString();
+    }
+}
@@ -6,11 +6,12 @@ import org.joda.time.LocalDate;
 import org.openmrs.Encounter;
 import org.openmrs.Obs;
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.aijarreports.common.ObsValue;
 import org.openmrs.module.aijarreports.common.Period;
 import org.openmrs.module.aijarreports.common.Periods;
 import org.openmrs.module.aijarreports.common.StubDate;
 import org.openmrs.module.aijarreports.definition.data.definition.ObsForPersonInPeriodDataDefinition;
-import org.openmrs.module.aijarreports.metadata.HIVMetadata;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.ListMap;
 import org.openmrs.module.reporting.common.TimeQualifier;
@@ -36,7 +37,7 @@ public class ObsForPersonInPeriodDataDefinitionEvaluator implements PatientDataE
     private EvaluationService evaluationService;
 
     @Autowired
-    private HIVMetadata hivMetadata;
+    private CohortBinder cohortBinder;
 
     @Override
     public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
@@ -48,8 +49,6 @@ public class ObsForPersonInPeriodDataDefinitionEvaluator implements PatientDataE
             return c;
         }
 
-        Map<Integer, Date> m = new HashMap<Integer, Date>();
-
         Period period = def.getPeriod();
 
         Date anotherDate = def.getStartDate();
@@ -110,78 +109,66 @@ public class ObsForPersonInPeriodDataDefinitionEvaluator implements PatientDataE
         Set<Integer> encounters = getEncounterIds(encounterQuery, context);
 
 
-        HqlQueryBuilder artStartQuery = new HqlQueryBuilder();
-        artStartQuery.select("o.personId", "MIN(o.valueDatetime)");
-        artStartQuery.from(Obs.class, "o");
-        artStartQuery.wherePersonIn("o.personId", context);
-        artStartQuery.whereIn("o.concept", hivMetadata.getConceptList("99161"));
-        artStartQuery.groupBy("o.personId");
-
-
-        HqlQueryBuilder q = new HqlQueryBuilder();
-        q.select("o.personId", "o");
-        q.from(Obs.class, "o");
-        q.wherePersonIn("o.personId", context);
-
-        if (def.getQuestion() != null) {
-            q.whereEqual("o.concept", def.getQuestion());
-        }
-
-        q.whereIdIn("o.encounter", encounters);
-
+        boolean projected = def.getValueFields() != null;
 
-        if (def.getAnswers() != null) {
-            q.whereIn("o.valueCoded", def.getAnswers());
-        }
+        List<Object[]> queryResult = new ArrayList<Object[]>();
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            HqlQueryBuilder q = new HqlQueryBuilder();
+            if (projected) {
+                List<String> columns = new ArrayList<String>();
+                columns.add("o.personId");
+                columns.add("o.obsDatetime");
+                for (ObsValue.Field field : def.getValueFields()) {
+                    columns.add(field.getProperty());
+                }
+                q.select(columns.toArray(new String[columns.size()]));
+            } else {
+                q.select("o.personId", "o");
+            }
+            q.from(Obs.class, "o");
+            chunk.wherePersonIn(q, "o.personId");
 
-        q.whereBetweenInclusive("o.obsDatetime", localEncounterStartDate.toDate(), localEncounterEndDate.toDate());
+            if (def.getQuestion() != null) {
+                q.whereEqual("o.concept", def.getQuestion());
+            }
 
-        q.groupBy("o.personId");
+            q.whereIdIn("o.encounter", encounters);
 
+            if (def.getAnswers() != null) {
+                q.whereIn("o.valueCoded", def.getAnswers());
+            }
 
-        List<Object[]> queryResult = evaluationService.evaluateToList(q, context);
+            q.whereBetweenInclusive("o.obsDatetime", localEncounterStartDate.toDate(), localEncounterEndDate.toDate());
 
-        ListMap<Integer, Obs> obsForPatients = new ListMap<Integer, Obs>();
+            q.groupBy("o.personId");
 
-        if (period == Period.QUARTERLY) {
-            m = getPatientDateMap(artStartQuery, context);
+            queryResult.addAll(evaluationService.evaluateToList(q, context));
         }
 
+        ListMap<Integer, Object> obsForPatients = new ListMap<Integer, Object>();
+
         for (Object[] row : queryResult) {
-            obsForPatients.putInList((Integer) row[0], (Obs) row[1]);
+            if (projected) {
+                ObsValue value = new ObsValue((Date) row[1]);
+                for (int i = 0; i < def.getValueFields().size(); i++) {
+                    value.set(def.getValueFields().get(i), row[i + 2]);
+                }
+                obsForPatients.putInList((Integer) row[0], value);
+            } else {
+                obsForPatients.putInList((Integer) row[0], row[1]);
+            }
         }
 
         for (Integer pId : obsForPatients.keySet()) {
-            List<Obs> l = obsForPatients.get(pId);
-            Obs obs = l.get(0);
+            List<Object> l = obsForPatients.get(pId);
+            Object obs = l.get(0);
 
-            if (period == Period.QUARTERLY) {
-                /*if (m.containsKey(pId)) {
-                    Date date = m.get(pId);
-                    Date date2 = obs.getObsDatetime();
-
-                    if (date2.before(date)) {
-                        c.addData(pId, obs);
-                    }
-                }*/
-                c.addData(pId, obs);
-            } else {
-                c.addData(pId, obs);
-            }
+            c.addData(pId, obs);
         }
 
         return c;
     }
 
-    protected Map<Integer, Date> getPatientDateMap(HqlQueryBuilder query, EvaluationContext context) {
-        Map<Integer, Date> m = new HashMap<Integer, Date>();
-        List<Object[]> queryResults = evaluationService.evaluateToList(query, context);
-        for (Object[] row : queryResults) {
-            m.put((Integer) row[0], (Date) row[1]);
-        }
-        return m;
-    }
-
     protected Set<Integer> getEncounterIds(HqlQueryBuilder query, EvaluationContext context) {
         Set<Integer> m = new HashSet<Integer>();
         List<Object[]> queryResults = evaluationService.evaluateToList(query, context);
@@ -1,62 +1,117 @@
 package org.openmrs.module.aijarreports.definition.data.evaluator;
 
+import org.openmrs.Concept;
+import org.openmrs.Obs;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.aijarreports.definition.data.definition.StatusAtEnrollmentPatientDatasetDefinition;
-import org.openmrs.module.aijarreports.library.HIVPatientDataLibrary;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.KeyedPatientObs;
+import org.openmrs.module.aijarreports.metadata.HIVMetadata;
+import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
-import org.openmrs.module.reporting.data.patient.PatientData;
 import org.openmrs.module.reporting.data.patient.definition.PatientDataDefinition;
 import org.openmrs.module.reporting.data.patient.evaluator.PatientDataEvaluator;
-import org.openmrs.module.reporting.data.patient.service.PatientDataService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
-import org.openmrs.module.reporting.evaluation.parameter.Mapped;
-import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Created by carapai on 16/05/2016.
+ *
+ * Reads the five status at enrollment questions of the ART summary page in one query, keeps the first obs of each
+ * patient per question and caches them for the run, so the combined column and the individual status columns cost a
+ * single pass over obs
  */
 @Handler(supports = StatusAtEnrollmentPatientDatasetDefinition.class, order = 50)
 
 public class StatusAtEnrollmentPatientDatasetDefinitionEvaluator implements PatientDataEvaluator {
 
     @Autowired
-    private HIVPatientDataLibrary hivLibrary;
+    private HIVMetadata hivMetadata;
 
     @Autowired
-    private PatientDataService patientDataService;
+    private EvaluationService evaluationService;
+
+    @Autowired
+    private CohortBinder cohortBinder;
 
     @Override
     public EvaluatedPatientData evaluate(PatientDataDefinition definition, EvaluationContext context) throws EvaluationException {
-
+        StatusAtEnrollmentPatientDatasetDefinition def = (StatusAtEnrollmentPatientDatasetDefinition) definition;
         EvaluatedPatientData pd = new EvaluatedPatientData(definition, context);
 
-        Map<String, PatientDataDefinition> m = new LinkedHashMap<String, PatientDataDefinition>();
-        m.put("TI", hivLibrary.getFirstTransferIn());
-        m.put("PREGNANT", hivLibrary.getFirstPregnant());
-        m.put("TB", hivLibrary.getFirstTB());
-        m.put("LACTATING", hivLibrary.getFirstLactating());
-        m.put("EID", hivLibrary.getFirstEID());
-
-        for (String questionKey : m.keySet()) {
-            PatientDataDefinition def = m.get(questionKey);
-            def.addParameter(new Parameter("onDate", "On Date", Date.class));
-            PatientData data = patientDataService.evaluate(Mapped.mapStraightThrough(def), context);
-            for (Map.Entry<Integer, Object> e : data.getData().entrySet()) {
+        KeyedPatientObs statuses = getStatuses(def.getStartDate(), context);
+        if (def.getStatus() != null) {
+            pd.getData().putAll(statuses.get(def.getStatus()));
+            return pd;
+        }
+
+        for (String status : getQuestions().keySet()) {
+            for (Map.Entry<Integer, Obs> e : statuses.get(status).entrySet()) {
                 Map<String, Object> reasonsForPatient = (Map<String, Object>) pd.getData().get(e.getKey());
                 if (reasonsForPatient == null) {
                     reasonsForPatient = new LinkedHashMap<String, Object>();
                     pd.getData().put(e.getKey(), reasonsForPatient);
                 }
-                reasonsForPatient.put(questionKey, e.getValue());
+                reasonsForPatient.put(status, StatusAtEnrollmentPatientDatasetDefinition.TI.equals(status) ? status : e.getValue().getValueNumeric());
             }
         }
-
         return pd;
     }
+
+    protected Map<String, Concept> getQuestions() {
+        Map<String, Concept> questions = new LinkedHashMap<String, Concept>();
+        questions.put(StatusAtEnrollmentPatientDatasetDefinition.TI, hivMetadata.getTransferInAtEnrollment());
+        questions.put(StatusAtEnrollmentPatientDatasetDefinition.PREGNANT, hivMetadata.getPregnantAtEnrollment());
+        questions.put(StatusAtEnrollmentPatientDatasetDefinition.TB, hivMetadata.getTBAtEnrollment());
+        questions.put(StatusAtEnrollmentPatientDatasetDefinition.LACTATING, hivMetadata.getLactatingAtEnrollment());
+        questions.put(StatusAtEnrollmentPatientDatasetDefinition.EID, hivMetadata.getPCRAtEnrollment());
+        return questions;
+    }
+
+    protected KeyedPatientObs getStatuses(Date startDate, EvaluationContext context) {
+        String cacheKey = KeyedPatientObs.class.getName() + ":statusAtEnrollment:" + DateUtil.formatDate(startDate, "yyyy-MM-dd");
+        KeyedPatientObs statuses = (KeyedPatientObs) context.getFromCache(cacheKey);
+        if (statuses == null || !statuses.covers(context.getBaseCohort())) {
+            Map<String, Concept> questions = getQuestions();
+            Map<Integer, String> statusByConcept = new HashMap<Integer, String>();
+            for (Map.Entry<String, Concept> e : questions.entrySet()) {
+                statusByConcept.put(e.getValue().getConceptId(), e.getKey());
+            }
+
+            Date from = DateUtil.getStartOfDay(startDate);
+            Date to = DateUtil.getEndOfDay(new Date());
+
+            List<Object[]> queryResult = new ArrayList<Object[]>();
+            for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+                HqlQueryBuilder q = new HqlQueryBuilder();
+                q.select("o.personId", "o.concept.conceptId", "o");
+                q.from(Obs.class, "o");
+                chunk.wherePersonIn(q, "o.personId");
+                q.whereIn("o.concept", new ArrayList<Concept>(questions.values()));
+                q.whereEqual("o.encounter.encounterType", hivMetadata.getARTSummaryEncounter());
+                q.whereBetweenInclusive("o.encounter.encounterDatetime", from, to);
+                q.whereBetweenInclusive("o.obsDatetime", from, to);
+                q.orderAsc("o.obsDatetime");
+                q.orderAsc("o.obsId");
+                queryResult.addAll(evaluationService.evaluateToList(q, context));
+            }
+
+            statuses = new KeyedPatientObs(context.getBaseCohort());
+            for (Object[] row : queryResult) {
+                statuses.addIfAbsent(statusByConcept.get(row[1]), (Integer) row[0], (Obs) row[2]);
+            }
+            context.addToCache(cacheKey, statuses);
+        }
+        return statuses;
+    }
 }
@@ -0,0 +1,17 @@
+package org.openmrs.module.aijarreports.definition.dataset.definition;
+
+import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
+
+/**
+ * A PatientDataSetDefinition whose columns are evaluated for batches of patients rather than for the whole cohort at once.
+ * The batch size is chosen from the number of columns so the intermediate data held per batch stays within a budget,
+ * whatever the size of the facility
+ */
+public class BatchedPatientDataSetDefinition extends PatientDataSetDefinition {
+
+    private static final long serialVersionUID = 1L;
+
+    public BatchedPatientDataSetDefinition() {
+        super();
+    }
+}
@@ -0,0 +1,18 @@
+package org.openmrs.module.aijarreports.definition.dataset.definition;
+
+import org.openmrs.module.reporting.dataset.definition.CohortIndicatorDataSetDefinition;
+
+/**
+ * A CohortIndicatorDataSetDefinition whose dimensions are evaluated once into a per patient index of dimension options,
+ * so each indicator's disaggregated cells are counted in a single pass over its cohort instead of one intersection per cell.
+ * Count indicators without denominator or location filter are indexed; any other indicator is evaluated as the
+ * reporting module does
+ */
+public class IndexedCohortIndicatorDataSetDefinition extends CohortIndicatorDataSetDefinition {
+
+    private static final long serialVersionUID = 1L;
+
+    public IndexedCohortIndicatorDataSetDefinition() {
+        super();
+    }
+}
@@ -0,0 +1,17 @@
+package org.openmrs.module.aijarreports.definition.dataset.definition;
+
+import org.openmrs.module.reporting.dataset.definition.CohortIndicatorDataSetDefinition;
+
+/**
+ * A CohortIndicatorDataSetDefinition whose indicator, denominator and dimension cohorts are evaluated in parallel before
+ * the reporting module computes the columns from them. Supports every indicator type, including fractions and logic
+ * indicators
+ */
+public class ParallelCohortIndicatorDataSetDefinition extends CohortIndicatorDataSetDefinition {
+
+    private static final long serialVersionUID = 1L;
+
+    public ParallelCohortIndicatorDataSetDefinition() {
+        super();
+    }
+}
@@ -0,0 +1,87 @@
+package org.openmrs.module.aijarreports.definition.dataset.definition;
+
+/**
+ * A column of a streaming patient list, read with a native SQL query selecting the patient id and the value.
+ * The query must end in a where clause, which is extended with the patient id range and cohort of each page, and may
+ * refer to the parameters of the data set as named parameters. When a patient has several rows the first one in the
+ * orderBy order is used
+ */
+public class StreamingPatientColumn {
+
+    /**
+     * How the selected value is written
+     */
+    public enum Format {
+        VALUE,
+        CONCEPT_NAME
+    }
+
+    private String name;
+
+    private String query;
+
+    private String patientIdColumn;
+
+    private String orderBy;
+
+    private Format format = Format.VALUE;
+
+    public StreamingPatientColumn() {
+    }
+
+    public StreamingPatientColumn(String query, String patientIdColumn, String orderBy, Format format) {
+        this.query = query;
+        this.patientIdColumn = patientIdColumn;
+        this.orderBy = orderBy;
+        this.format = format;
+    }
+
+    /**
+     * @return a copy of this column with the given name
+     */
+    public StreamingPatientColumn named(String name) {
+        StreamingPatientColumn column = new StreamingPatientColumn(query, patientIdColumn, orderBy, format);
+        column.setName(name);
+        return column;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public String getPatientIdColumn() {
+        return patientIdColumn;
+    }
+
+    public void setPatientIdColumn(String patientIdColumn) {
+        this.patientIdColumn = patientIdColumn;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+}
@@ -0,0 +1,59 @@
+package org.openmrs.module.aijarreports.definition.dataset.definition;
+
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.dataset.definition.BaseDataSetDefinition;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A row per patient list whose rows are read while the data set is iterated, in patient id order, rather than
+ * evaluated up front. Each column is a native SQL query read a page at a time, so a renderer writing rows as it
+ * iterates holds a page per column whatever the number of patients
+ */
+public class StreamingPatientListDataSetDefinition extends BaseDataSetDefinition {
+
+    private static final long serialVersionUID = 1L;
+
+    @ConfigurationProperty
+    private List<Mapped<? extends CohortDefinition>> rowFilters;
+
+    @ConfigurationProperty
+    private List<StreamingPatientColumn> columns;
+
+    public StreamingPatientListDataSetDefinition() {
+        super();
+    }
+
+    public void addRowFilter(Mapped<? extends CohortDefinition> rowFilter) {
+        getRowFilters().add(rowFilter);
+    }
+
+    public void addColumn(String name, StreamingPatientColumn column) {
+        getColumns().add(column.named(name));
+    }
+
+    public List<Mapped<? extends CohortDefinition>> getRowFilters() {
+        if (rowFilters == null) {
+            rowFilters = new ArrayList<Mapped<? extends CohortDefinition>>();
+        }
+        return rowFilters;
+    }
+
+    public void setRowFilters(List<Mapped<? extends CohortDefinition>> rowFilters) {
+        this.rowFilters = rowFilters;
+    }
+
+    public List<StreamingPatientColumn> getColumns() {
+        if (columns == null) {
+            columns = new ArrayList<StreamingPatientColumn>();
+        }
+        return columns;
+    }
+
+    public void setColumns(List<StreamingPatientColumn> columns) {
+        this.columns = columns;
+    }
+}
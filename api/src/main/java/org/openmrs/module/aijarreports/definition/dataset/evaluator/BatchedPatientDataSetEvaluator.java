@@ -0,0 +1,163 @@
+package org.openmrs.module.aijarreports.definition.dataset.evaluator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.aijarreports.definition.data.evaluator.BatchConvertedPatientDataEvaluator;
+import org.openmrs.module.aijarreports.definition.dataset.definition.BatchedPatientDataSetDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.common.SortCriteria;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator;
+import org.openmrs.module.reporting.dataset.definition.evaluator.PatientDataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Evaluates a BatchedPatientDataSetDefinition. The row filters are evaluated once for the whole cohort, which is then
+ * split into batches of ascending patient ids. Each batch is evaluated by the reporting module's evaluator in its own
+ * context, so the column data and caches of a batch can be collected before the next one starts, and only the finished
+ * rows are kept. Each batch is one CohortBinder run, so all its columns join on a single load of the batch into the
+ * cohort member work table. Rows are sorted by the sort criteria once all batches are done
+ */
+@Handler(supports = {BatchedPatientDataSetDefinition.class})
+public class BatchedPatientDataSetEvaluator implements DataSetEvaluator {
+
+    protected static final Log log = LogFactory.getLog(BatchedPatientDataSetEvaluator.class);
+
+    public static final String GP_EVALUATION_CELL_BUDGET = "aijarreports.evaluationCellBudget";
+
+    public static final int DEFAULT_EVALUATION_CELL_BUDGET = 500000;
+
+    public static final int MIN_BATCH_SIZE = 250;
+
+    @Autowired
+    PatientDataSetEvaluator patientDataSetEvaluator;
+
+    @Autowired
+    CohortBinder cohortBinder;
+
+    @Override
+    public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
+        context = ObjectUtil.nvl(context, new EvaluationContext());
+        BatchedPatientDataSetDefinition dsd = (BatchedPatientDataSetDefinition) dataSetDefinition;
+
+        Cohort cohort = context.getBaseCohort();
+        if (cohort == null) {
+            cohort = Context.getPatientSetService().getAllPatients();
+        }
+        for (Mapped<? extends CohortDefinition> rowFilter : dsd.getRowFilters()) {
+            cohort = Cohort.intersect(cohort, Context.getService(CohortDefinitionService.class).evaluate(rowFilter, context));
+        }
+
+        PatientDataSetDefinition batchDsd = new PatientDataSetDefinition();
+        batchDsd.setName(dsd.getName());
+        batchDsd.setParameters(dsd.getParameters());
+        batchDsd.setColumnDefinitions(dsd.getColumnDefinitions());
+
+        List<Integer> patientIds = new ArrayList<Integer>(cohort.getMemberIds());
+        Collections.sort(patientIds);
+        int batchSize = getBatchSize(dsd.getColumnDefinitions().size());
+        log.debug("Evaluating " + patientIds.size() + " patients in batches of " + batchSize);
+
+        SimpleDataSet ret = new SimpleDataSet(dsd, context);
+        for (int start = 0; start == 0 || start < patientIds.size(); start += batchSize) {
+            Cohort batch = new Cohort(patientIds.subList(start, Math.min(start + batchSize, patientIds.size())));
+            EvaluationContext batchContext = copy(context, batch);
+            SimpleDataSet batchData;
+            cohortBinder.beginRun(batchContext);
+            try {
+                batchData = (SimpleDataSet) patientDataSetEvaluator.evaluate(batchDsd, batchContext);
+            } finally {
+                cohortBinder.endRun(batchContext);
+            }
+            if (start == 0) {
+                ret.setMetaData(batchData.getMetaData());
+            }
+            for (DataSetRow row : batchData.getRows()) {
+                ret.addRow(row);
+            }
+        }
+
+        if (!dsd.getSortCriteria().getSortElements().isEmpty()) {
+            Collections.sort(ret.getRows(), new RowComparator(dsd.getSortCriteria()));
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of patients whose columns fit in the cell budget
+     */
+    protected int getBatchSize(int columns) {
+        int budget = DEFAULT_EVALUATION_CELL_BUDGET;
+        String gp = Context.getAdministrationService().getGlobalProperty(GP_EVALUATION_CELL_BUDGET);
+        if (gp != null && gp.trim().length() > 0) {
+            try {
+                budget = Integer.parseInt(gp.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid " + GP_EVALUATION_CELL_BUDGET + ": " + gp);
+            }
+        }
+        return Math.max(MIN_BATCH_SIZE, budget / Math.max(1, columns));
+    }
+
+    /**
+     * @return a context with the same parameters and the batch as base cohort, with a cache of its own apart from the
+     * ids resolved by converters, which are shared by the whole run
+     */
+    protected EvaluationContext copy(EvaluationContext context, Cohort batch) {
+        EvaluationContext copy = new EvaluationContext(context.getEvaluationDate());
+        copy.setParameterValues(new HashMap<String, Object>(context.getParameterValues()));
+        copy.setBaseCohort(batch);
+        BatchConvertedPatientDataEvaluator.shareResolved(context, copy);
+        return copy;
+    }
+
+    /**
+     * Orders rows by the sort criteria, nulls first for ascending columns
+     */
+    private static class RowComparator implements Comparator<DataSetRow> {
+
+        private final SortCriteria sortCriteria;
+
+        RowComparator(SortCriteria sortCriteria) {
+            this.sortCriteria = sortCriteria;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(DataSetRow a, DataSetRow b) {
+            for (SortCriteria.SortElement element : sortCriteria.getSortElements()) {
+                Object x = a.getColumnValue(element.getElementName());
+                Object y = b.getColumnValue(element.getElementName());
+                int c;
+                if (x == null || y == null) {
+                    c = x == null ? (y == null ? 0 : -1) : 1;
+                } else {
+                    c = ((Comparable<Object>) x).compareTo(y);
+                }
+                if (c != 0) {
+                    return element.getDirection() == SortCriteria.SortDirection.DESC ? -c : c;
+                }
+            }
+            return 0;
+        }
+    }
+}
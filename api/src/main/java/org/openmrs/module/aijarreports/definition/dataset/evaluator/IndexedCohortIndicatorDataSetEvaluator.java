@@ -0,0 +1,203 @@
+package org.openmrs.module.aijarreports.definition.dataset.evaluator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.aijarreports.definition.dataset.definition.IndexedCohortIndicatorDataSetDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.CohortFingerprint;
+import org.openmrs.module.aijarreports.evaluation.CohortQueryPlanner;
+import org.openmrs.module.aijarreports.evaluation.DimensionIndex;
+import org.openmrs.module.aijarreports.evaluation.ParallelCohortEvaluator;
+import org.openmrs.module.aijarreports.evaluation.PatientBitmap;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.MapDataSet;
+import org.openmrs.module.reporting.dataset.definition.CohortIndicatorDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.indicator.CohortIndicator;
+import org.openmrs.module.reporting.indicator.CohortIndicatorResult;
+import org.openmrs.module.reporting.indicator.dimension.CohortDefinitionDimension;
+import org.openmrs.module.reporting.indicator.dimension.CohortIndicatorAndDimensionResult;
+import org.openmrs.module.reporting.indicator.service.IndicatorService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates an IndexedCohortIndicatorDataSetDefinition. Every dimension option is evaluated once into a DimensionIndex,
+ * every distinct indicator cohort is evaluated once and histogrammed by dimension options in a single pass, and each
+ * column's count is read off that histogram. Values are CohortIndicatorAndDimensionResults as the reporting module
+ * produces, holding the indicator and dimension cohorts for drill down, with the count already taken from the histogram.
+ * Columns that are not plain counts are evaluated by the reporting module's indicator evaluator.
+ * The distinct cohorts are independent of each other and are evaluated up front by the ParallelCohortEvaluator.
+ * The data set is evaluated in one CohortBinder run, so a large base cohort is loaded once for all of its queries
+ */
+@Handler(supports = {IndexedCohortIndicatorDataSetDefinition.class})
+public class IndexedCohortIndicatorDataSetEvaluator implements DataSetEvaluator {
+
+    protected static final Log log = LogFactory.getLog(IndexedCohortIndicatorDataSetEvaluator.class);
+
+    @Autowired
+    CohortQueryPlanner cohortQueryPlanner;
+
+    @Autowired
+    ParallelCohortEvaluator parallelCohortEvaluator;
+
+    @Autowired
+    CohortBinder cohortBinder;
+
+    @Override
+    public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
+        context = ObjectUtil.nvl(context, new EvaluationContext());
+        boolean run = cohortBinder.beginRun(context);
+        try {
+            return evaluate((IndexedCohortIndicatorDataSetDefinition) dataSetDefinition, context);
+        } finally {
+            if (run) {
+                cohortBinder.endRun(context);
+            }
+        }
+    }
+
+    protected MapDataSet evaluate(IndexedCohortIndicatorDataSetDefinition dsd, EvaluationContext context) throws EvaluationException {
+        MapDataSet ret = new MapDataSet(dsd, context);
+        ret.setName(dsd.getName());
+        ret.setDescription(dsd.getDescription());
+
+        // Every distinct dimension option and indicator cohort, in column order
+        LinkedHashMap<String, ParallelCohortEvaluator.Task> tasks = new LinkedHashMap<String, ParallelCohortEvaluator.Task>();
+        Map<String, Map<String, String>> optionKeys = new LinkedHashMap<String, Map<String, String>>();
+        for (Map.Entry<String, Mapped<CohortDefinitionDimension>> dimension : dsd.getDimensions().entrySet()) {
+            EvaluationContext dimensionContext = EvaluationContext.cloneForChild(context, dimension.getValue());
+            Map<String, String> keys = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, Mapped<CohortDefinition>> option : dimension.getValue().getParameterizable().getCohortDefinitions().entrySet()) {
+                keys.put(option.getKey(), addTask(tasks, option.getValue(), dimensionContext));
+            }
+            optionKeys.put(dimension.getKey(), keys);
+        }
+        List<String> columnKeys = new ArrayList<String>();
+        List<EvaluationContext> columnContexts = new ArrayList<EvaluationContext>();
+        for (CohortIndicatorDataSetDefinition.CohortIndicatorAndDimensionColumn column : dsd.getColumns()) {
+            EvaluationContext indicatorContext = EvaluationContext.cloneForChild(context, column.getIndicator());
+            columnKeys.add(isPlainCount(column) ? addTask(tasks, column.getIndicator().getParameterizable().getCohortDefinition(), indicatorContext) : null);
+            columnContexts.add(indicatorContext);
+        }
+
+        parallelCohortEvaluator.evaluateAll(tasks, context);
+
+        DimensionIndex dimensionIndex = new DimensionIndex();
+        Map<String, Map<String, Cohort>> optionCohorts = new HashMap<String, Map<String, Cohort>>();
+        for (Map.Entry<String, Map<String, String>> dimension : optionKeys.entrySet()) {
+            Map<String, Cohort> cohorts = new HashMap<String, Cohort>();
+            for (Map.Entry<String, String> option : dimension.getValue().entrySet()) {
+                Cohort cohort = getResult(option.getValue(), tasks, context).toCohort();
+                dimensionIndex.addOption(dimension.getKey(), option.getKey(), cohort);
+                cohorts.put(option.getKey(), cohort);
+            }
+            optionCohorts.put(dimension.getKey(), cohorts);
+        }
+
+        Map<String, Cohort> cohorts = new HashMap<String, Cohort>();
+        Map<String, Map<Integer, Integer>> histograms = new HashMap<String, Map<Integer, Integer>>();
+        for (int i = 0; i < dsd.getColumns().size(); i++) {
+            CohortIndicatorDataSetDefinition.CohortIndicatorAndDimensionColumn column = dsd.getColumns().get(i);
+            String key = columnKeys.get(i);
+            CohortIndicatorAndDimensionResult result;
+            if (key == null) {
+                CohortIndicatorResult indicatorResult = (CohortIndicatorResult) Context.getService(IndicatorService.class).evaluate(column.getIndicator(), context);
+                result = new CohortIndicatorAndDimensionResult(indicatorResult, context);
+            } else {
+                Map<Integer, Integer> histogram = histograms.get(key);
+                if (histogram == null) {
+                    cohorts.put(key, getResult(key, tasks, context).toCohort());
+                    histogram = dimensionIndex.histogram(cohorts.get(key));
+                    histograms.put(key, histogram);
+                }
+                int count = DimensionIndex.count(histogram, dimensionIndex.getRequiredMask(column.getDimensionOptions()));
+                result = new CountedResult(column, cohorts.get(key), columnContexts.get(i), context, count);
+            }
+            for (Map.Entry<String, String> option : column.getDimensionOptions().entrySet()) {
+                result.addDimensionResult(option.getKey(), option.getValue(), optionCohorts.get(option.getKey()).get(option.getValue()));
+            }
+            ret.addData(column, result);
+        }
+
+        log.debug("Evaluated " + dsd.getColumns().size() + " columns from " + histograms.size() + " distinct cohorts");
+        return ret;
+    }
+
+    protected String addTask(LinkedHashMap<String, ParallelCohortEvaluator.Task> tasks, Mapped<? extends CohortDefinition> mapped, EvaluationContext parentContext) {
+        EvaluationContext childContext = EvaluationContext.cloneForChild(parentContext, mapped);
+        String key = CohortFingerprint.of(mapped.getParameterizable(), childContext);
+        if (!tasks.containsKey(key)) {
+            tasks.put(key, new ParallelCohortEvaluator.Task(mapped, parentContext));
+        }
+        return key;
+    }
+
+    /**
+     * @return the result stored by the parallel evaluation, or the cohort evaluated now if it was not run in parallel
+     */
+    protected PatientBitmap getResult(String key, Map<String, ParallelCohortEvaluator.Task> tasks, EvaluationContext context) throws EvaluationException {
+        final ParallelCohortEvaluator.Task task = tasks.get(key);
+        return cohortQueryPlanner.evaluate(key, context, new CohortQueryPlanner.Evaluation() {
+            @Override
+            public PatientBitmap evaluate() throws EvaluationException {
+                return PatientBitmap.of(Context.getService(CohortDefinitionService.class).evaluate(task.getMapped(), task.getContext()));
+            }
+        });
+    }
+
+    /**
+     * @return true if the column counts its cohort, with no denominator or location filter, so the count can be read
+     * off the histogram
+     */
+    protected boolean isPlainCount(CohortIndicatorDataSetDefinition.CohortIndicatorAndDimensionColumn column) {
+        CohortIndicator indicator = column.getIndicator().getParameterizable();
+        return indicator.getType() == CohortIndicator.IndicatorType.COUNT && indicator.getDenominator() == null && indicator.getLocationFilter() == null;
+    }
+
+    /**
+     * The result of a plain count column, whose value is the count taken from the histogram rather than the size of
+     * the intersection of its cohorts, which is only built when the cohort is drilled into
+     */
+    public static class CountedResult extends CohortIndicatorAndDimensionResult {
+
+        private final int count;
+
+        CountedResult(CohortIndicatorDataSetDefinition.CohortIndicatorAndDimensionColumn column, Cohort cohort,
+                      EvaluationContext indicatorContext, EvaluationContext context, int count) {
+            super(newIndicatorResult(column, cohort, indicatorContext), context);
+            this.count = count;
+        }
+
+        private static CohortIndicatorResult newIndicatorResult(CohortIndicatorDataSetDefinition.CohortIndicatorAndDimensionColumn column, Cohort cohort,
+                                                                EvaluationContext indicatorContext) {
+            CohortIndicator indicator = column.getIndicator().getParameterizable();
+            CohortIndicatorResult result = new CohortIndicatorResult();
+            result.setIndicator(indicator);
+            result.setContext(indicatorContext);
+            result.setCohort(new EvaluatedCohort(cohort, indicator.getCohortDefinition().getParameterizable(), indicatorContext));
+            return result;
+        }
+
+        @Override
+        public Number getValue() {
+            return count;
+        }
+    }
+}
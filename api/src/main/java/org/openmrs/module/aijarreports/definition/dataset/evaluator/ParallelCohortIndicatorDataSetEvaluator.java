@@ -0,0 +1,99 @@
+package org.openmrs.module.aijarreports.definition.dataset.evaluator;
+
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.aijarreports.definition.cohort.definition.BitmapCompositionCohortDefinition;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedAgeCohortDefinition;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedEncounterCohortDefinition;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedGenderCohortDefinition;
+import org.openmrs.module.aijarreports.definition.dataset.definition.ParallelCohortIndicatorDataSetDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.CohortFingerprint;
+import org.openmrs.module.aijarreports.evaluation.ParallelCohortEvaluator;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.definition.CohortIndicatorDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.CohortIndicatorDataSetEvaluator;
+import org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.indicator.CohortIndicator;
+import org.openmrs.module.reporting.indicator.dimension.CohortDefinitionDimension;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evaluates a ParallelCohortIndicatorDataSetDefinition. The distinct indicator, denominator and dimension option cohorts
+ * are evaluated in parallel into the CohortQueryPlanner store of the context, then the reporting module's evaluator
+ * builds the columns, finding each cohort already evaluated through the fingerprint caching evaluators. Only cohorts
+ * whose evaluators read that store are evaluated up front; any other cohort would be evaluated again by the reporting
+ * module's evaluator, so it is left to that evaluator alone. The data set is evaluated in one CohortBinder run, so a
+ * large base cohort is loaded once for all of its queries
+ */
+@Handler(supports = {ParallelCohortIndicatorDataSetDefinition.class})
+public class ParallelCohortIndicatorDataSetEvaluator implements DataSetEvaluator {
+
+    @Autowired
+    ParallelCohortEvaluator parallelCohortEvaluator;
+
+    @Autowired
+    CohortIndicatorDataSetEvaluator cohortIndicatorDataSetEvaluator;
+
+    @Autowired
+    CohortBinder cohortBinder;
+
+    @Override
+    public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
+        context = ObjectUtil.nvl(context, new EvaluationContext());
+        CohortIndicatorDataSetDefinition dsd = (CohortIndicatorDataSetDefinition) dataSetDefinition;
+
+        LinkedHashMap<String, ParallelCohortEvaluator.Task> tasks = new LinkedHashMap<String, ParallelCohortEvaluator.Task>();
+        for (CohortIndicatorDataSetDefinition.CohortIndicatorAndDimensionColumn column : dsd.getColumns()) {
+            EvaluationContext indicatorContext = EvaluationContext.cloneForChild(context, column.getIndicator());
+            CohortIndicator indicator = column.getIndicator().getParameterizable();
+            addTask(tasks, indicator.getCohortDefinition(), indicatorContext);
+            if (indicator.getDenominator() != null) {
+                addTask(tasks, indicator.getDenominator(), indicatorContext);
+            }
+        }
+        for (Map.Entry<String, Mapped<CohortDefinitionDimension>> dimension : dsd.getDimensions().entrySet()) {
+            EvaluationContext dimensionContext = EvaluationContext.cloneForChild(context, dimension.getValue());
+            for (Mapped<CohortDefinition> option : dimension.getValue().getParameterizable().getCohortDefinitions().values()) {
+                addTask(tasks, option, dimensionContext);
+            }
+        }
+        boolean run = cohortBinder.beginRun(context);
+        try {
+            parallelCohortEvaluator.evaluateAll(tasks, context);
+            return cohortIndicatorDataSetEvaluator.evaluate(dsd, context);
+        } finally {
+            if (run) {
+                cohortBinder.endRun(context);
+            }
+        }
+    }
+
+    protected void addTask(LinkedHashMap<String, ParallelCohortEvaluator.Task> tasks, Mapped<? extends CohortDefinition> mapped, EvaluationContext parentContext) {
+        if (mapped == null || !isStored(mapped.getParameterizable())) {
+            return;
+        }
+        String key = CohortFingerprint.of(mapped.getParameterizable(), EvaluationContext.cloneForChild(parentContext, mapped));
+        if (!tasks.containsKey(key)) {
+            tasks.put(key, new ParallelCohortEvaluator.Task(mapped, parentContext));
+        }
+    }
+
+    /**
+     * @return true if the evaluator of the definition looks its result up in the CohortQueryPlanner store
+     */
+    protected boolean isStored(CohortDefinition definition) {
+        return definition instanceof BitmapCompositionCohortDefinition
+                || definition instanceof CachedGenderCohortDefinition
+                || definition instanceof CachedAgeCohortDefinition
+                || definition instanceof CachedEncounterCohortDefinition;
+    }
+}
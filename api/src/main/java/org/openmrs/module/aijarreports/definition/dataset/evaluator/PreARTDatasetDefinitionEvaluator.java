@@ -1,16 +1,9 @@
 package org.openmrs.module.aijarreports.definition.dataset.evaluator;
 
-import org.openmrs.Cohort;
-import org.openmrs.EncounterType;
-import org.openmrs.Patient;
-import org.openmrs.PatientIdentifierType;
 import org.openmrs.annotation.Handler;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.aijarreports.common.PatientDataHelper;
 import org.openmrs.module.aijarreports.definition.dataset.definition.PreARTDatasetDefinition;
-import org.openmrs.module.aijarreports.metadata.CommonReportMetadata;
-import org.openmrs.module.aijarreports.metadata.HIVMetadata;
-import org.openmrs.module.reporting.cohort.CohortUtil;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetRow;
@@ -19,50 +12,51 @@ import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
 import org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.Date;
-import java.util.List;
+import java.util.Map;
 
 /**
  * Created by carapai on 11/05/2016.
+ * Reads the demographics of the whole cohort with set based queries and builds the rows in patient id order,
+ * without loading Patient entities. Without a base cohort all non voided patients are read
  */
 @Handler(supports = {PreARTDatasetDefinition.class})
 public class PreARTDatasetDefinitionEvaluator implements DataSetEvaluator {
-    @Override
-    public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
-        SimpleDataSet dataSet = new SimpleDataSet(dataSetDefinition, context);
-        PreARTDatasetDefinition definition = (PreARTDatasetDefinition) dataSetDefinition;
 
-        PatientIdentifierType patientIdentifierType = definition.getPatientIdentifierType();
-        List<EncounterType> ets = definition.getEncounterTypes();
+    @Autowired
+    private CohortBinder cohortBinder;
 
+    @Override
+    public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
         context = ObjectUtil.nvl(context, new EvaluationContext());
-        Cohort cohort = context.getBaseCohort();
-
-        Date  endDateParameter = (Date) context.getParameterValue("startDate");
+        SimpleDataSet dataSet = new SimpleDataSet(dataSetDefinition, context);
 
-        if (cohort == null) {
-            cohort = Context.getPatientSetService().getAllPatients();
-        }
+        PatientDataHelper pdh = new PatientDataHelper();
 
-        if (context.getLimit() != null) {
-            CohortUtil.limitCohort(cohort, context.getLimit());
+        Map<Integer, PatientDataHelper.Demographics> demographics;
+        boolean run = cohortBinder.beginRun(context);
+        try {
+            demographics = pdh.getDemographics(cohortBinder.bind(context), context);
+        } finally {
+            if (run) {
+                cohortBinder.endRun(context);
+            }
         }
 
-        List<Patient> patients = Context.getPatientSetService().getPatients(cohort.getMemberIds());
-
-        PatientDataHelper pdh = new PatientDataHelper();
-        HIVMetadata hivMetadata = new HIVMetadata();
-        CommonReportMetadata commonMetadata = new CommonReportMetadata();
-
-        for (Patient p : patients) {
+        Integer limit = context.getLimit();
+        for (Map.Entry<Integer, PatientDataHelper.Demographics> e : demographics.entrySet()) {
+            if (limit != null && dataSet.getRows().size() >= limit) {
+                break;
+            }
+            PatientDataHelper.Demographics d = e.getValue();
             DataSetRow row = new DataSetRow();
 
-            pdh.addCol(row, "ID", p.getPatientId());
-            pdh.addCol(row, "givenName", pdh.getGivenName(p));
-            pdh.addCol(row, "familyName", pdh.getFamilyName(p));
-            pdh.addCol(row, "birthDate", p.getBirthdate());
-            pdh.addCol(row, "gender", pdh.getGender(p));
+            pdh.addCol(row, "ID", e.getKey());
+            pdh.addCol(row, "givenName", d.getGivenName());
+            pdh.addCol(row, "familyName", d.getFamilyName());
+            pdh.addCol(row, "birthDate", d.getBirthdate());
+            pdh.addCol(row, "gender", d.getGender());
 
             dataSet.addRow(row);
         }
@@ -0,0 +1,67 @@
+package org.openmrs.module.aijarreports.definition.dataset.evaluator;
+
+import org.openmrs.Cohort;
+import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.aijarreports.definition.dataset.definition.StreamingPatientListDataSetDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortBinder;
+import org.openmrs.module.aijarreports.evaluation.StreamingPatientListDataSet;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.definition.DataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.evaluator.DataSetEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates a StreamingPatientListDataSetDefinition. Only the row filters are evaluated here; the columns are read
+ * by the returned data set as it is iterated, so the renderer writes each row as soon as it is read. The data set keeps
+ * the values of its first complete pass, so it is only read from the database once
+ */
+@Handler(supports = {StreamingPatientListDataSetDefinition.class})
+public class StreamingPatientListDataSetEvaluator implements DataSetEvaluator {
+
+    @Autowired
+    private CohortBinder cohortBinder;
+
+    @Autowired
+    private EvaluationService evaluationService;
+
+    @Override
+    public DataSet evaluate(DataSetDefinition dataSetDefinition, EvaluationContext context) throws EvaluationException {
+        context = ObjectUtil.nvl(context, new EvaluationContext());
+        StreamingPatientListDataSetDefinition dsd = (StreamingPatientListDataSetDefinition) dataSetDefinition;
+
+        Cohort cohort = context.getBaseCohort();
+        if (cohort == null) {
+            cohort = Context.getPatientSetService().getAllPatients();
+        }
+        for (Mapped<? extends CohortDefinition> rowFilter : dsd.getRowFilters()) {
+            cohort = Cohort.intersect(cohort, Context.getService(CohortDefinitionService.class).evaluate(rowFilter, context));
+        }
+
+        int[] patientIds = new int[cohort.size()];
+        int i = 0;
+        for (Integer patientId : cohort.getMemberIds()) {
+            patientIds[i++] = patientId;
+        }
+        Arrays.sort(patientIds);
+        if (context.getLimit() != null && context.getLimit() < patientIds.length) {
+            patientIds = Arrays.copyOf(patientIds, context.getLimit());
+            Cohort limited = new Cohort();
+            for (int patientId : patientIds) {
+                limited.addMember(patientId);
+            }
+            cohort = limited;
+        }
+
+        return new StreamingPatientListDataSet(dsd, context, cohort, patientIds, cohortBinder, evaluationService);
+    }
+}
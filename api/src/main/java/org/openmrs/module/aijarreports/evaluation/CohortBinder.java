@@ -0,0 +1,198 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Restricts this module's queries to the base cohort of an evaluation. Cohorts up to the inline limit are passed as
+ * IN lists like HqlQueryBuilder.wherePersonIn does. Larger cohorts are loaded into the cohort member work table once per
+ * run, under one key per distinct cohort, and joined through a sub query so parse time and packet size stay bounded
+ * however large the facility is. Outside a run, or in a read only transaction, nothing is written to the database and
+ * larger cohorts are split into chunks of at most the inline limit, each restricting its own query, so no single query
+ * grows with the cohort
+ */
+@Component
+public class CohortBinder {
+
+    protected static final Log log = LogFactory.getLog(CohortBinder.class);
+
+    public static final String GP_INLINE_COHORT_LIMIT = "aijarreports.inlineCohortLimit";
+
+    public static final int DEFAULT_INLINE_COHORT_LIMIT = 1000;
+
+    public static final String LOADED = CohortBinder.class.getName() + ":loaded";
+
+    @Autowired
+    private CohortMemberTable cohortMemberTable;
+
+    /**
+     * Starts a run on the context. Cohorts loaded while the run lasts stay loaded until endRun is called with the same
+     * context, so every query of the run joins on the same rows
+     *
+     * @return true if a run was started, false if the context is already in one, which the caller must then not end
+     */
+    public boolean beginRun(EvaluationContext context) {
+        if (getLoaded(context) != null) {
+            return false;
+        }
+        context.addToCache(LOADED, new HashMap<String, String>());
+        return true;
+    }
+
+    /**
+     * Releases every cohort loaded during the run started on the context
+     */
+    public void endRun(EvaluationContext context) {
+        Map<String, String> loaded = getLoaded(context);
+        if (loaded == null) {
+            return;
+        }
+        context.removeFromCache(LOADED);
+        for (String cohortKey : loaded.values()) {
+            cohortMemberTable.release(cohortKey);
+        }
+    }
+
+    /**
+     * Binds the base cohort of the context
+     */
+    public CohortBinding bind(EvaluationContext context) {
+        Cohort cohort = context.getBaseCohort();
+        if (cohort == null || cohort.size() <= getInlineLimit()) {
+            return new CohortBinding(context, null, cohort);
+        }
+        return new CohortBinding(context, getCohortKey(context), cohort);
+    }
+
+    /**
+     * @return the key the base cohort of the context is loaded under for the rest of the run, or null if there is no
+     * base cohort, no run or the transaction is read only, in which case callers must restrict their results themselves
+     */
+    public String getCohortKey(EvaluationContext context) {
+        Cohort cohort = context.getBaseCohort();
+        Map<String, String> loaded = getLoaded(context);
+        if (cohort == null || loaded == null || TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return null;
+        }
+        String fingerprint = CohortFingerprint.of(cohort, context);
+        String cohortKey = loaded.get(fingerprint);
+        if (cohortKey == null) {
+            cohortKey = cohortMemberTable.load(cohort);
+            loaded.put(fingerprint, cohortKey);
+        }
+        return cohortKey;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, String> getLoaded(EvaluationContext context) {
+        return (Map<String, String>) context.getFromCache(LOADED);
+    }
+
+    protected int getInlineLimit() {
+        String limit = Context.getAdministrationService().getGlobalProperty(GP_INLINE_COHORT_LIMIT);
+        if (limit != null && limit.trim().length() > 0) {
+            try {
+                return Integer.parseInt(limit.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid " + GP_INLINE_COHORT_LIMIT + ": " + limit);
+            }
+        }
+        return DEFAULT_INLINE_COHORT_LIMIT;
+    }
+
+    /**
+     * The base cohort of an evaluation, or a chunk of it, either inline or loaded under a cohort key
+     */
+    public class CohortBinding {
+
+        private final EvaluationContext context;
+
+        private final String cohortKey;
+
+        private final Cohort cohort;
+
+        CohortBinding(EvaluationContext context, String cohortKey, Cohort cohort) {
+            this.context = context;
+            this.cohortKey = cohortKey;
+            this.cohort = cohort;
+        }
+
+        /**
+         * @return bindings that together cover the bound cohort, each to restrict a query of its own: this binding
+         * alone if the cohort is loaded or small enough to pass inline, otherwise one inline binding per chunk of at
+         * most the inline limit, in ascending patient id order
+         */
+        public List<CohortBinding> split() {
+            int limit = getInlineLimit();
+            if (cohortKey != null || cohort == null || cohort.size() <= limit) {
+                return Collections.singletonList(this);
+            }
+            List<CohortBinding> chunks = new ArrayList<CohortBinding>();
+            List<Integer> chunk = new ArrayList<Integer>(limit);
+            for (Integer patientId : PatientBitmap.of(cohort).getMemberIds()) {
+                chunk.add(patientId);
+                if (chunk.size() == limit) {
+                    chunks.add(new CohortBinding(context, null, new Cohort(chunk)));
+                    chunk = new ArrayList<Integer>(limit);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(new CohortBinding(context, null, new Cohort(chunk)));
+            }
+            log.debug("Split cohort of " + cohort.size() + " patients into " + chunks.size() + " chunks");
+            return chunks;
+        }
+
+        /**
+         * Restricts the person id property of the query to the bound cohort
+         *
+         * @throws IllegalStateException if the cohort is neither loaded nor small enough to pass inline, in which
+         * case the binding must be split first
+         */
+        public void wherePersonIn(HqlQueryBuilder q, String property) {
+            if (cohortKey != null) {
+                q.where(property + " in (select m.patientId from CohortMember m where m.cohortKey = ?)", cohortKey);
+            } else if (cohort == context.getBaseCohort()) {
+                if (cohort != null && cohort.size() > getInlineLimit()) {
+                    throw new IllegalStateException("Cohort of " + cohort.size() + " patients is not loaded and must be split");
+                }
+                q.wherePersonIn(property, context);
+            } else {
+                q.whereIn(property, cohort.getMemberIds());
+            }
+        }
+
+        public boolean isLoaded() {
+            return cohortKey != null;
+        }
+
+        /**
+         * @return the key the cohort is loaded under, null if it is passed inline
+         */
+        public String getCohortKey() {
+            return cohortKey;
+        }
+
+        /**
+         * @return the ids of the cohort when it is passed inline, null if it is loaded or there is no cohort to
+         * restrict to
+         */
+        public Set<Integer> getInlinePatientIds() {
+            return cohortKey != null || cohort == null ? null : cohort.getMemberIds();
+        }
+    }
+}
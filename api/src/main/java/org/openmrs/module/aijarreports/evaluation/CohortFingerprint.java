@@ -0,0 +1,187 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.definition.DefinitionUtil;
+import org.openmrs.module.reporting.definition.configuration.Property;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Structural identity of cohort definitions. Two definitions have the same fingerprint when they are of the same class
+ * with the same configuration properties, parameters and, for compositions, the same composition string over searches
+ * with the same fingerprints and parameter mappings. Names, descriptions and uuids are ignored
+ */
+public class CohortFingerprint {
+
+    public static final String DIGESTS = CohortFingerprint.class.getName() + ":digests";
+
+    private CohortFingerprint() {
+    }
+
+    /**
+     * @return the structural fingerprint of the definition
+     */
+    public static String of(CohortDefinition definition) {
+        StringBuilder sb = new StringBuilder(definition.getClass().getName());
+
+        Map<String, String> properties = new TreeMap<String, String>();
+        for (Property property : DefinitionUtil.getConfigurationProperties(definition)) {
+            properties.put(property.getField().getName(), format(property.getValue()));
+        }
+        sb.append(properties);
+
+        Map<String, String> parameters = new TreeMap<String, String>();
+        for (Parameter parameter : definition.getParameters()) {
+            parameters.put(parameter.getName(), parameter.getType().getName());
+        }
+        sb.append(parameters);
+
+        if (definition instanceof CompositionCohortDefinition) {
+            CompositionCohortDefinition composition = (CompositionCohortDefinition) definition;
+            sb.append("[").append(composition.getCompositionString()).append("]");
+            Map<String, String> searches = new TreeMap<String, String>();
+            for (Map.Entry<String, Mapped<CohortDefinition>> e : composition.getSearches().entrySet()) {
+                searches.put(e.getKey(), of(e.getValue().getParameterizable()) + new TreeMap<String, Object>(e.getValue().getParameterMappings()));
+            }
+            sb.append(searches);
+        }
+        return digest(sb.toString());
+    }
+
+    /**
+     * @return the fingerprint of the definition together with the parameter values it is evaluated with and the base
+     * cohort it is restricted to, which identifies one evaluation within a run
+     */
+    public static String of(CohortDefinition definition, EvaluationContext context) {
+        StringBuilder sb = new StringBuilder(of(definition));
+        Map<String, String> values = new TreeMap<String, String>();
+        for (Parameter parameter : definition.getParameters()) {
+            values.put(parameter.getName(), format(context.getParameterValue(parameter.getName())));
+        }
+        sb.append(values);
+        Cohort baseCohort = context.getBaseCohort();
+        if (baseCohort != null) {
+            sb.append("|").append(of(baseCohort, context));
+        }
+        return digest(sb.toString());
+    }
+
+    /**
+     * @return the digest of the cohort as of(Cohort) computes it, kept in the context cache per Cohort instance so the
+     * base cohort of a run is digested once rather than for every definition evaluated against it. A cohort whose size
+     * changed since is digested again
+     */
+    public static String of(Cohort cohort, EvaluationContext context) {
+        Map<Cohort, CohortDigest> digests = getDigests(context);
+        CohortDigest digest = digests.get(cohort);
+        if (digest == null || digest.size != cohort.size()) {
+            digest = new CohortDigest(cohort.size(), of(cohort));
+            digests.put(cohort, digest);
+        }
+        return digest.value;
+    }
+
+    /**
+     * Makes the context of a worker thread use the cohort digests of the calling context
+     */
+    public static void share(EvaluationContext from, EvaluationContext to) {
+        to.addToCache(DIGESTS, getDigests(from));
+    }
+
+    /**
+     * @return a digest of the sorted member ids of the cohort, equal for two cohorts exactly when they have the same
+     * members
+     */
+    public static String of(Cohort cohort) {
+        Set<Integer> ids = PatientBitmap.of(cohort).getMemberIds();
+        StringBuilder sb = new StringBuilder(ids.size() * 7);
+        for (Integer id : ids) {
+            sb.append(id).append(",");
+        }
+        return digest(sb.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Map<Cohort, CohortDigest> getDigests(EvaluationContext context) {
+        Map<Cohort, CohortDigest> digests = (Map<Cohort, CohortDigest>) context.getFromCache(DIGESTS);
+        if (digests == null) {
+            synchronized (context) {
+                digests = (Map<Cohort, CohortDigest>) context.getFromCache(DIGESTS);
+                if (digests == null) {
+                    digests = Collections.synchronizedMap(new IdentityHashMap<Cohort, CohortDigest>());
+                    context.addToCache(DIGESTS, digests);
+                }
+            }
+        }
+        return digests;
+    }
+
+    protected static String format(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Date) {
+            return DateUtil.formatDate((Date) value, "yyyy-MM-dd HH:mm:ss.SSS");
+        }
+        if (value instanceof OpenmrsObject) {
+            return value.getClass().getSimpleName() + "#" + ((OpenmrsObject) value).getUuid();
+        }
+        if (value instanceof CohortDefinition) {
+            return of((CohortDefinition) value);
+        }
+        if (value instanceof Collection) {
+            StringBuilder sb = new StringBuilder("[");
+            for (Object o : (Collection<?>) value) {
+                sb.append(format(o)).append(",");
+            }
+            return sb.append("]").toString();
+        }
+        return value.toString();
+    }
+
+    protected static String digest(String s) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The digest of a cohort and the size it had when digested
+     */
+    protected static class CohortDigest {
+
+        private final int size;
+
+        private final String value;
+
+        CohortDigest(int size, String value) {
+            this.size = size;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import java.io.Serializable;
+
+/**
+ * A row of the aijarreports_cohort_member work table, mapped so HQL queries can select from it in sub queries
+ *
+ * @see CohortMemberTable
+ */
+public class CohortMember implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String cohortKey;
+
+    private Integer patientId;
+
+    public String getCohortKey() {
+        return cohortKey;
+    }
+
+    public void setCohortKey(String cohortKey) {
+        this.cohortKey = cohortKey;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CohortMember)) {
+            return false;
+        }
+        CohortMember other = (CohortMember) o;
+        return cohortKey != null && cohortKey.equals(other.cohortKey) && patientId != null && patientId.equals(other.patientId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (cohortKey == null ? 0 : cohortKey.hashCode()) + (patientId == null ? 0 : patientId.hashCode());
+    }
+}
@@ -0,0 +1,87 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+import org.openmrs.Cohort;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Loads cohorts into the aijarreports_cohort_member work table so that native SQL can join on them instead of scanning
+ * every patient in the database. Each load gets its own key, which callers join on and release when done.
+ * A keyed table is used rather than a MySQL temporary table because a temporary table can only be referenced once per query
+ */
+@Component
+public class CohortMemberTable {
+
+    protected static final Log log = LogFactory.getLog(CohortMemberTable.class);
+
+    public static final String TABLE_NAME = "aijarreports_cohort_member";
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    /**
+     * Loads the members of the cohort in the current session
+     *
+     * @return the key to join on, null if the cohort is null, meaning all patients
+     */
+    public String load(final Cohort cohort) {
+        if (cohort == null) {
+            return null;
+        }
+        final String cohortKey = UUID.randomUUID().toString();
+        sessionFactory.getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement("INSERT INTO " + TABLE_NAME + " (cohort_key, patient_id) VALUES (?, ?)");
+                try {
+                    int rows = 0;
+                    for (Integer patientId : cohort.getMemberIds()) {
+                        statement.setString(1, cohortKey);
+                        statement.setInt(2, patientId);
+                        statement.addBatch();
+                        if (++rows % INSERT_BATCH_SIZE == 0) {
+                            statement.executeBatch();
+                        }
+                    }
+                    statement.executeBatch();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+        log.debug("Loaded " + cohort.size() + " patients under cohort key " + cohortKey);
+        return cohortKey;
+    }
+
+    /**
+     * Removes the members loaded under the key
+     */
+    public void release(final String cohortKey) {
+        if (cohortKey == null) {
+            return;
+        }
+        sessionFactory.getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE cohort_key = ?");
+                try {
+                    statement.setString(1, cohortKey);
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+    }
+}
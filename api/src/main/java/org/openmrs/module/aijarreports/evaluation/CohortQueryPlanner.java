@@ -0,0 +1,127 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Run-scoped store of evaluated cohorts. Results are kept per run, keyed by the structural fingerprint of the
+ * definition and the resolved parameter values, so a sub-cohort shared by many compositions and indicators is evaluated
+ * once however often it is referred to. The store holds futures and may be shared with the contexts of worker threads,
+ * so a cohort being evaluated by one thread is waited for by the others rather than evaluated again
+ */
+@Component
+public class CohortQueryPlanner {
+
+    protected static final Log log = LogFactory.getLog(CohortQueryPlanner.class);
+
+    public static final String RESULTS = CohortQueryPlanner.class.getName() + ":results";
+
+    /**
+     * An evaluation of a cohort, run at most once per key and store
+     */
+    public interface Evaluation {
+
+        PatientBitmap evaluate() throws EvaluationException;
+    }
+
+    /**
+     * @return the result stored under the key, or evaluated now and stored if there is none. A result being evaluated
+     * by another thread is waited for
+     */
+    public PatientBitmap evaluate(String key, EvaluationContext context, final Evaluation evaluation) throws EvaluationException {
+        ConcurrentMap<String, Future<PatientBitmap>> results = getResults(context);
+        Future<PatientBitmap> result = results.get(key);
+        if (result == null) {
+            FutureTask<PatientBitmap> task = new FutureTask<PatientBitmap>(new Callable<PatientBitmap>() {
+                @Override
+                public PatientBitmap call() throws Exception {
+                    return evaluation.evaluate();
+                }
+            });
+            result = results.putIfAbsent(key, task);
+            if (result == null) {
+                result = task;
+                task.run();
+            }
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            results.remove(key, result);
+            if (e.getCause() instanceof EvaluationException) {
+                throw (EvaluationException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to evaluate cohort", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for cohort", e);
+        }
+    }
+
+    /**
+     * @return the result of an earlier evaluation of the same node with the same parameter values, waiting for it if
+     * another thread is evaluating it, or null if it has not been evaluated or its evaluation failed
+     */
+    public PatientBitmap getResult(String key, EvaluationContext context) {
+        Future<PatientBitmap> result = getResults(context).get(key);
+        if (result == null) {
+            return null;
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for cohort", e);
+        }
+    }
+
+    /**
+     * Stores the result unless one is already stored or being evaluated under the key
+     */
+    public void putResult(String key, PatientBitmap result, EvaluationContext context) {
+        FutureTask<PatientBitmap> done = new FutureTask<PatientBitmap>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, result);
+        done.run();
+        getResults(context).putIfAbsent(key, done);
+    }
+
+    /**
+     * Makes the context of a worker thread use the store of the calling context
+     */
+    public void share(EvaluationContext from, EvaluationContext to) {
+        to.addToCache(RESULTS, getResults(from));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ConcurrentMap<String, Future<PatientBitmap>> getResults(EvaluationContext context) {
+        ConcurrentMap<String, Future<PatientBitmap>> results = (ConcurrentMap<String, Future<PatientBitmap>>) context.getFromCache(RESULTS);
+        if (results == null) {
+            synchronized (context) {
+                results = (ConcurrentMap<String, Future<PatientBitmap>>) context.getFromCache(RESULTS);
+                if (results == null) {
+                    results = new ConcurrentHashMap<String, Future<PatientBitmap>>();
+                    context.addToCache(RESULTS, results);
+                }
+            }
+        }
+        return results;
+    }
+}
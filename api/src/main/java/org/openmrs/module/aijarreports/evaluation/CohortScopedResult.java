@@ -0,0 +1,32 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Base class for results which are computed once for a base cohort and then shared through the EvaluationContext
+ * cache. A cached result may only be reused by an evaluation whose base cohort it covers
+ */
+public abstract class CohortScopedResult {
+
+    private final Set<Integer> memberIds;
+
+    /**
+     * @param cohort the patients the result was computed for, null if it was computed for all patients
+     */
+    protected CohortScopedResult(Cohort cohort) {
+        this.memberIds = cohort == null ? null : new HashSet<Integer>(cohort.getMemberIds());
+    }
+
+    /**
+     * @return true if every member of the cohort was included when the result was computed
+     */
+    public boolean covers(Cohort cohort) {
+        if (memberIds == null) {
+            return true;
+        }
+        return cohort != null && memberIds.containsAll(cohort.getMemberIds());
+    }
+}
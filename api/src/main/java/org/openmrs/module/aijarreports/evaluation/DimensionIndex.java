@@ -0,0 +1,91 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The dimension options each patient falls in, one bit per option, in an array indexed by patient id.
+ * Options may overlap (e.g. "child" and "below2male"), a patient simply has several bits set
+ */
+public class DimensionIndex {
+
+    public static final int MAX_OPTIONS = 31;
+
+    private final Map<String, Integer> bits = new HashMap<String, Integer>();
+
+    private int[] masks = new int[0];
+
+    /**
+     * Adds an option of a dimension with the patients that fall in it
+     */
+    public void addOption(String dimension, String option, Cohort cohort) {
+        if (bits.size() >= MAX_OPTIONS) {
+            throw new IllegalArgumentException("Cannot index more than " + MAX_OPTIONS + " dimension options");
+        }
+        int bit = 1 << bits.size();
+        bits.put(key(dimension, option), bit);
+        for (Integer patientId : cohort.getMemberIds()) {
+            if (patientId >= masks.length) {
+                int[] grown = new int[Math.max(patientId + 1, masks.length * 2)];
+                System.arraycopy(masks, 0, grown, 0, masks.length);
+                masks = grown;
+            }
+            masks[patientId] |= bit;
+        }
+    }
+
+    /**
+     * @return the bits a patient needs to be counted under all the given options of each dimension
+     */
+    public int getRequiredMask(Map<String, String> dimensionOptions) {
+        int mask = 0;
+        if (dimensionOptions != null) {
+            for (Map.Entry<String, String> e : dimensionOptions.entrySet()) {
+                Integer bit = bits.get(key(e.getKey(), e.getValue()));
+                if (bit == null) {
+                    throw new IllegalArgumentException("Unknown option " + e.getValue() + " of dimension " + e.getKey());
+                }
+                mask |= bit;
+            }
+        }
+        return mask;
+    }
+
+    public int getMask(int patientId) {
+        return patientId < masks.length ? masks[patientId] : 0;
+    }
+
+    /**
+     * Counts the members of the cohort by the combination of options they fall in, in one pass
+     *
+     * @return the number of patients for each option mask
+     */
+    public Map<Integer, Integer> histogram(Cohort cohort) {
+        Map<Integer, Integer> histogram = new HashMap<Integer, Integer>();
+        for (Integer patientId : cohort.getMemberIds()) {
+            int mask = getMask(patientId);
+            Integer count = histogram.get(mask);
+            histogram.put(mask, count == null ? 1 : count + 1);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the number of patients in the histogram having all the required bits
+     */
+    public static int count(Map<Integer, Integer> histogram, int requiredMask) {
+        int count = 0;
+        for (Map.Entry<Integer, Integer> e : histogram.entrySet()) {
+            if ((e.getKey() & requiredMask) == requiredMask) {
+                count += e.getValue();
+            }
+        }
+        return count;
+    }
+
+    private String key(String dimension, String option) {
+        return dimension + "=" + option;
+    }
+}
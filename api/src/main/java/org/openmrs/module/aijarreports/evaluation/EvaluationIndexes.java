@@ -0,0 +1,143 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.module.aijarreports.metadata.HIVMetadata;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Per patient indexes which several evaluators need during a report run. Each index is only computed the first time an
+ * evaluator asks for it and is then kept in the RunCache for the rest of the run, where worker threads find it too
+ */
+@Component
+public class EvaluationIndexes {
+
+    protected static final Log log = LogFactory.getLog(EvaluationIndexes.class);
+
+    public static final String ART_START_DATES = EvaluationIndexes.class.getName() + ":artStartDates";
+
+    public static final String BIRTHDATES = EvaluationIndexes.class.getName() + ":birthdates";
+
+    public static final String LAST_APPOINTMENT_DATES = EvaluationIndexes.class.getName() + ":lastAppointmentDates:";
+
+    @Autowired
+    private EvaluationService evaluationService;
+
+    @Autowired
+    private HIVMetadata hivMetadata;
+
+    @Autowired
+    private CohortBinder cohortBinder;
+
+    @Autowired
+    private RunCache runCache;
+
+    /**
+     * @return the earliest ART start date (concept 99161) recorded for each patient in the base cohort
+     */
+    public PatientDateIndex getArtStartDates(final EvaluationContext context) {
+        return runCache.getCovering(ART_START_DATES, context, new RunCache.Computation<PatientDateIndex>() {
+            @Override
+            public PatientDateIndex compute() {
+                return buildArtStartDates(context);
+            }
+        });
+    }
+
+    /**
+     * @return the birthdates of the non voided patients in the base cohort, sorted for range lookups
+     */
+    public SortedPatientDateIndex getBirthdates(final EvaluationContext context) {
+        return runCache.getCovering(BIRTHDATES, context, new RunCache.Computation<SortedPatientDateIndex>() {
+            @Override
+            public SortedPatientDateIndex compute() {
+                return buildBirthdates(context);
+            }
+        });
+    }
+
+    /**
+     * @return the latest appointment date (concept 5096) on or before the end date for each patient in the base cohort
+     */
+    public SortedPatientDateIndex getLastAppointmentDates(final Date endDate, final EvaluationContext context) {
+        return runCache.getCovering(LAST_APPOINTMENT_DATES + endDate.getTime(), context, new RunCache.Computation<SortedPatientDateIndex>() {
+            @Override
+            public SortedPatientDateIndex compute() {
+                return buildLastAppointmentDates(endDate, context);
+            }
+        });
+    }
+
+    protected PatientDateIndex buildArtStartDates(EvaluationContext context) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            HqlQueryBuilder q = new HqlQueryBuilder();
+            q.select("o.personId", "MIN(o.valueDatetime)");
+            q.from(Obs.class, "o");
+            chunk.wherePersonIn(q, "o.personId");
+            q.whereIn("o.concept", hivMetadata.getConceptList("99161"));
+            q.whereEqual("o.voided", false);
+            q.groupBy("o.personId");
+            rows.addAll(evaluationService.evaluateToList(q, context));
+        }
+
+        PatientDateIndex index = new PatientDateIndex(context.getBaseCohort());
+        fill(index, rows);
+        return index;
+    }
+
+    protected SortedPatientDateIndex buildBirthdates(EvaluationContext context) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            HqlQueryBuilder q = new HqlQueryBuilder();
+            q.select("p.patientId", "p.birthdate");
+            q.from(Patient.class, "p");
+            chunk.wherePersonIn(q, "p.patientId");
+            q.whereEqual("p.voided", false);
+            q.whereNotNull("p.birthdate");
+            rows.addAll(evaluationService.evaluateToList(q, context));
+        }
+
+        SortedPatientDateIndex index = new SortedPatientDateIndex(context.getBaseCohort(), rows);
+        log.debug("Indexed " + index.size() + " birthdates");
+        return index;
+    }
+
+    protected SortedPatientDateIndex buildLastAppointmentDates(Date endDate, EvaluationContext context) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (CohortBinder.CohortBinding chunk : cohortBinder.bind(context).split()) {
+            HqlQueryBuilder q = new HqlQueryBuilder();
+            q.select("o.person.personId", "max(o.valueDatetime)");
+            q.from(Obs.class, "o");
+            chunk.wherePersonIn(q, "o.person.personId");
+            q.whereEqual("o.concept.conceptId", 5096);
+            q.whereLessOrEqualTo("o.valueDatetime", endDate);
+            q.whereEqual("o.person.personVoided", false);
+            q.groupBy("o.person.personId");
+            rows.addAll(evaluationService.evaluateToList(q, context));
+        }
+
+        SortedPatientDateIndex index = new SortedPatientDateIndex(context.getBaseCohort(), rows);
+        log.debug("Indexed " + index.size() + " appointment dates");
+        return index;
+    }
+
+    protected void fill(PatientDateIndex index, List<Object[]> rows) {
+        for (Object[] row : rows) {
+            if (row[1] != null) {
+                index.put((Integer) row[0], (Date) row[1]);
+            }
+        }
+        log.debug("Indexed " + index.getDates().size() + " patient dates");
+    }
+}
@@ -0,0 +1,40 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+import org.openmrs.module.aijarreports.common.PatientData;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follow up status of each patient for several periods, keyed by period offset, computed in one pass
+ */
+public class FUStatusBatch extends CohortScopedResult {
+
+    private final Map<Integer, Map<Integer, PatientData>> dataByPeriod = new HashMap<Integer, Map<Integer, PatientData>>();
+
+    public FUStatusBatch(Cohort cohort) {
+        super(cohort);
+    }
+
+    public void addData(Integer periodToAdd, Integer patientId, PatientData patientData) {
+        Map<Integer, PatientData> data = dataByPeriod.get(periodToAdd);
+        if (data == null) {
+            data = new HashMap<Integer, PatientData>();
+            dataByPeriod.put(periodToAdd, data);
+        }
+        data.put(patientId, patientData);
+    }
+
+    /**
+     * @return the follow up status of each patient in the period at the given offset
+     */
+    public Map<Integer, PatientData> getData(Integer periodToAdd) {
+        Map<Integer, PatientData> data = dataByPeriod.get(periodToAdd);
+        if (data == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(data);
+    }
+}
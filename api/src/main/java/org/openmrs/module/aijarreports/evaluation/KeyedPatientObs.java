@@ -0,0 +1,43 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+import org.openmrs.Obs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The first obs of each patient for several keys (e.g. one key per question), read in one query and shared by every
+ * column asking for one of the keys
+ */
+public class KeyedPatientObs extends CohortScopedResult {
+
+    private final Map<String, Map<Integer, Obs>> obsByKey = new HashMap<String, Map<Integer, Obs>>();
+
+    public KeyedPatientObs(Cohort cohort) {
+        super(cohort);
+    }
+
+    /**
+     * Keeps the obs unless the patient already has one for the key
+     */
+    public void addIfAbsent(String key, Integer patientId, Obs obs) {
+        Map<Integer, Obs> obsForKey = obsByKey.get(key);
+        if (obsForKey == null) {
+            obsForKey = new HashMap<Integer, Obs>();
+            obsByKey.put(key, obsForKey);
+        }
+        if (!obsForKey.containsKey(patientId)) {
+            obsForKey.put(patientId, obs);
+        }
+    }
+
+    public Map<Integer, Obs> get(String key) {
+        Map<Integer, Obs> obsForKey = obsByKey.get(key);
+        if (obsForKey == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(obsForKey);
+    }
+}
@@ -0,0 +1,106 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Obs values for a set of concepts bucketed by patient, concept and period offset.
+ * Built once per evaluation run from a single scan over the whole window and shared through the EvaluationContext cache
+ */
+public class LongitudinalObsPivot extends CohortScopedResult {
+
+    private final Map<Integer, Integer> conceptIndexes = new HashMap<Integer, Integer>();
+
+    private final long[] periodStarts;
+
+    private final long[] periodEnds;
+
+    private final boolean keepLast;
+
+    private final Map<Integer, Object[]> values = new HashMap<Integer, Object[]>();
+
+    /**
+     * @param conceptIds   the concepts being pivoted
+     * @param periodStarts the start of each period, in ascending order
+     * @param periodEnds   the inclusive end of each period
+     * @param keepLast     whether a later value in the same period replaces an earlier one
+     * @param cohort       the patients the pivot was built for, null if it was built for all patients
+     */
+    public LongitudinalObsPivot(List<Integer> conceptIds, Date[] periodStarts, Date[] periodEnds, boolean keepLast, Cohort cohort) {
+        super(cohort);
+        for (Integer conceptId : conceptIds) {
+            if (!conceptIndexes.containsKey(conceptId)) {
+                conceptIndexes.put(conceptId, conceptIndexes.size());
+            }
+        }
+        this.periodStarts = new long[periodStarts.length];
+        this.periodEnds = new long[periodEnds.length];
+        for (int i = 0; i < periodStarts.length; i++) {
+            this.periodStarts[i] = periodStarts[i].getTime();
+            this.periodEnds[i] = periodEnds[i].getTime();
+        }
+        this.keepLast = keepLast;
+    }
+
+    /**
+     * Adds a value, rows are expected in ascending date order
+     */
+    public void add(Integer patientId, Integer conceptId, Date date, Object value) {
+        Integer conceptIndex = conceptIndexes.get(conceptId);
+        int periodIndex = periodIndexOf(date);
+        if (conceptIndex == null || periodIndex < 0) {
+            return;
+        }
+        Object[] patientValues = values.get(patientId);
+        if (patientValues == null) {
+            patientValues = new Object[conceptIndexes.size() * periodStarts.length];
+            values.put(patientId, patientValues);
+        }
+        int slot = conceptIndex * periodStarts.length + periodIndex;
+        if (keepLast || patientValues[slot] == null) {
+            patientValues[slot] = value;
+        }
+    }
+
+    /**
+     * @return the value recorded for the patient and concept in the period at the given offset, or null
+     */
+    public Object get(Integer patientId, Integer conceptId, int periodToAdd) {
+        Integer conceptIndex = conceptIndexes.get(conceptId);
+        Object[] patientValues = values.get(patientId);
+        if (conceptIndex == null || patientValues == null || periodToAdd < 0 || periodToAdd >= periodStarts.length) {
+            return null;
+        }
+        return patientValues[conceptIndex * periodStarts.length + periodToAdd];
+    }
+
+    public Set<Integer> getPatientIds() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    public int getNumberOfPeriods() {
+        return periodStarts.length;
+    }
+
+    protected int periodIndexOf(Date date) {
+        if (date == null) {
+            return -1;
+        }
+        long time = date.getTime();
+        int i = Arrays.binarySearch(periodStarts, time);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0 || time > periodEnds[i]) {
+            return -1;
+        }
+        return i;
+    }
+}
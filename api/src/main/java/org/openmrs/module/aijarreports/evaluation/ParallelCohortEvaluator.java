@@ -0,0 +1,185 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates independent cohort definitions on a bounded pool of worker threads. Each worker opens its own session and
+ * evaluates against its own copy of the EvaluationContext. The copies share the thread safe CohortQueryPlanner and
+ * RunCache stores of the calling context, so a sub-cohort or index used by several tasks is computed by one worker and
+ * waited for by the others, and the sequential evaluation that follows picks every result up. One pool serves every
+ * evaluation, so concurrent report runs together use at most the configured number of threads; idle threads exit. Cohorts loaded by a CohortBinder run of the calling
+ * thread are not committed and so not visible to the workers, whose copies start no run and bind large cohorts in chunks
+ */
+@Component
+public class ParallelCohortEvaluator {
+
+    protected static final Log log = LogFactory.getLog(ParallelCohortEvaluator.class);
+
+    public static final String GP_EVALUATION_THREADS = "aijarreports.evaluationThreads";
+
+    @Autowired
+    private CohortQueryPlanner cohortQueryPlanner;
+
+    @Autowired
+    private RunCache runCache;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * A cohort definition to evaluate and the context it is mapped from
+     */
+    public static class Task {
+
+        private final Mapped<? extends CohortDefinition> mapped;
+
+        private final EvaluationContext context;
+
+        public Task(Mapped<? extends CohortDefinition> mapped, EvaluationContext context) {
+            this.mapped = mapped;
+            this.context = context;
+        }
+
+        public Mapped<? extends CohortDefinition> getMapped() {
+            return mapped;
+        }
+
+        public EvaluationContext getContext() {
+            return context;
+        }
+    }
+
+    /**
+     * Evaluates the tasks whose keys are not yet in the planner store of the context and stores their results under those keys
+     *
+     * @param tasks the tasks keyed by CohortFingerprint of the definition and its resolved context
+     */
+    public void evaluateAll(LinkedHashMap<String, Task> tasks, EvaluationContext context) {
+        Map<String, Task> pending = new LinkedHashMap<String, Task>();
+        for (Map.Entry<String, Task> e : tasks.entrySet()) {
+            if (cohortQueryPlanner.getResult(e.getKey(), context) == null) {
+                pending.put(e.getKey(), e.getValue());
+            }
+        }
+        int threads = Math.min(getThreads(), pending.size());
+        if (threads < 2) {
+            return;
+        }
+
+        log.debug("Evaluating " + pending.size() + " cohorts on " + threads + " threads");
+        final UserContext userContext = Context.getUserContext();
+        ThreadPoolExecutor executor = getExecutor();
+        List<Future<PatientBitmap>> futures = new ArrayList<Future<PatientBitmap>>();
+        boolean done = false;
+        try {
+            for (Map.Entry<String, Task> e : pending.entrySet()) {
+                final String key = e.getKey();
+                final Mapped<? extends CohortDefinition> mapped = e.getValue().getMapped();
+                final EvaluationContext workerContext = copy(e.getValue().getContext());
+                cohortQueryPlanner.share(context, workerContext);
+                runCache.share(context, workerContext);
+                CohortFingerprint.share(context, workerContext);
+                futures.add(executor.submit(new Callable<PatientBitmap>() {
+                    @Override
+                    public PatientBitmap call() throws Exception {
+                        Context.openSession();
+                        try {
+                            Context.setUserContext(userContext);
+                            PatientBitmap result = PatientBitmap.of(Context.getService(CohortDefinitionService.class).evaluate(mapped, workerContext));
+                            cohortQueryPlanner.putResult(key, result, workerContext);
+                            return result;
+                        } finally {
+                            Context.closeSession();
+                        }
+                    }
+                }));
+            }
+            for (Future<PatientBitmap> future : futures) {
+                future.get();
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating cohorts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to evaluate cohort", e.getCause());
+        } finally {
+            if (!done) {
+                for (Future<PatientBitmap> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a context with the same parameters, base cohort and limit but its own cache, apart from the shared stores
+     */
+    protected EvaluationContext copy(EvaluationContext context) {
+        EvaluationContext copy = new EvaluationContext(context.getEvaluationDate());
+        copy.setParameterValues(new HashMap<String, Object>(context.getParameterValues()));
+        copy.setBaseCohort(context.getBaseCohort());
+        copy.setLimit(context.getLimit());
+        return copy;
+    }
+
+    /**
+     * @return the pool shared by every evaluation, created on first use and resized when the thread setting changes
+     */
+    protected synchronized ThreadPoolExecutor getExecutor() {
+        int threads = Math.max(1, getThreads());
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "aijarreports-evaluation-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        } else if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else if (threads < executor.getMaximumPoolSize()) {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+        return executor;
+    }
+
+    protected int getThreads() {
+        String threads = Context.getAdministrationService().getGlobalProperty(GP_EVALUATION_THREADS);
+        if (threads != null && threads.trim().length() > 0) {
+            try {
+                return Integer.parseInt(threads.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid " + GP_EVALUATION_THREADS + ": " + threads);
+            }
+        }
+        return Math.min(4, Runtime.getRuntime().availableProcessors());
+    }
+}
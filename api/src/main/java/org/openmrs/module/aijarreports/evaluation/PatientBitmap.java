@@ -0,0 +1,103 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A set of patient ids held as a bitmap indexed by patient id. Patient ids are dense auto increment keys, so a plain
+ * BitSet is compact and lets AND, OR and AND NOT run a word at a time without boxing.
+ * The boxed member set is only built when it is asked for
+ */
+public class PatientBitmap {
+
+    private final BitSet bits;
+
+    private Set<Integer> memberIds;
+
+    public PatientBitmap() {
+        this(new BitSet());
+    }
+
+    protected PatientBitmap(BitSet bits) {
+        this.bits = bits;
+    }
+
+    public static PatientBitmap of(Collection<Integer> patientIds) {
+        PatientBitmap bitmap = new PatientBitmap();
+        for (Integer patientId : patientIds) {
+            bitmap.add(patientId);
+        }
+        return bitmap;
+    }
+
+    public static PatientBitmap of(Cohort cohort) {
+        return of(cohort.getMemberIds());
+    }
+
+    public void add(int patientId) {
+        bits.set(patientId);
+        memberIds = null;
+    }
+
+    public boolean contains(int patientId) {
+        return bits.get(patientId);
+    }
+
+    public int size() {
+        return bits.cardinality();
+    }
+
+    public boolean isEmpty() {
+        return bits.isEmpty();
+    }
+
+    /**
+     * @return the patients in both bitmaps
+     */
+    public PatientBitmap and(PatientBitmap other) {
+        BitSet result = (BitSet) bits.clone();
+        result.and(other.bits);
+        return new PatientBitmap(result);
+    }
+
+    /**
+     * @return the patients in either bitmap
+     */
+    public PatientBitmap or(PatientBitmap other) {
+        BitSet result = (BitSet) bits.clone();
+        result.or(other.bits);
+        return new PatientBitmap(result);
+    }
+
+    /**
+     * @return the patients in this bitmap but not in the other
+     */
+    public PatientBitmap andNot(PatientBitmap other) {
+        BitSet result = (BitSet) bits.clone();
+        result.andNot(other.bits);
+        return new PatientBitmap(result);
+    }
+
+    /**
+     * @return the member ids in ascending order, built on first call
+     */
+    public Set<Integer> getMemberIds() {
+        if (memberIds == null) {
+            Set<Integer> ids = new LinkedHashSet<Integer>(bits.cardinality() * 4 / 3 + 1);
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                ids.add(i);
+            }
+            memberIds = Collections.unmodifiableSet(ids);
+        }
+        return memberIds;
+    }
+
+    public Cohort toCohort() {
+        return new Cohort(getMemberIds());
+    }
+}
@@ -0,0 +1,104 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.module.aijarreports.definition.dataset.definition.StreamingPatientColumn;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.querybuilder.SqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a StreamingPatientColumn in ascending patient id order, a page at a time. Pages are keyed on the last patient
+ * id read rather than on an offset, so every page is an index range scan and all cursors of a list can share the
+ * session's connection, which a MySQL streaming result set would not allow
+ */
+public class PatientColumnCursor {
+
+    public static final int PAGE_SIZE = 1000;
+
+    private final StreamingPatientColumn column;
+
+    private final String cohortKey;
+
+    private final Map<String, Object> parameterValues;
+
+    private final EvaluationService evaluationService;
+
+    private List<Object[]> page = Collections.emptyList();
+
+    private int index = 0;
+
+    private int after = 0;
+
+    private boolean exhausted = false;
+
+    /**
+     * @param cohortKey the key the listed patients are loaded under, or null to read every patient's rows
+     */
+    public PatientColumnCursor(StreamingPatientColumn column, String cohortKey, Map<String, Object> parameterValues, EvaluationService evaluationService) {
+        this.column = column;
+        this.cohortKey = cohortKey;
+        this.parameterValues = parameterValues;
+        this.evaluationService = evaluationService;
+    }
+
+    /**
+     * Advances to the given patient, which must not be lower than the patient of the previous call
+     *
+     * @return the value of the first row of the patient, or null if the patient has none
+     */
+    public Object valueFor(int patientId) {
+        Object[] row = peek();
+        while (row != null && ((Number) row[0]).intValue() < patientId) {
+            index++;
+            row = peek();
+        }
+        if (row != null && ((Number) row[0]).intValue() == patientId) {
+            return row[1];
+        }
+        return null;
+    }
+
+    protected Object[] peek() {
+        if (index < page.size()) {
+            return page.get(index);
+        }
+        if (exhausted) {
+            return null;
+        }
+        if (!page.isEmpty()) {
+            after = ((Number) page.get(page.size() - 1)[0]).intValue();
+        }
+        page = evaluationService.evaluateToList(getPageQuery(), new EvaluationContext());
+        index = 0;
+        exhausted = page.size() < PAGE_SIZE;
+        return page.isEmpty() ? null : page.get(0);
+    }
+
+    /**
+     * The next page of rows of the cohort, starting after the last patient of the previous page. Any further rows of
+     * that patient come after its first one, so skipping them is safe
+     */
+    protected SqlQueryBuilder getPageQuery() {
+        String patientId = column.getPatientIdColumn();
+        SqlQueryBuilder q = new SqlQueryBuilder();
+        q.append(column.getQuery());
+        q.append(" and " + patientId + " > :after");
+        if (cohortKey != null) {
+            q.append(" and " + patientId + " in (select m.patient_id from " + CohortMemberTable.TABLE_NAME + " m where m.cohort_key = :cohortKey)");
+            q.addParameter("cohortKey", cohortKey);
+        }
+        q.append(" order by " + patientId + (column.getOrderBy() != null ? ", " + column.getOrderBy() : ""));
+        q.append(" limit " + PAGE_SIZE);
+        q.addParameter("after", after);
+        for (Map.Entry<String, Object> e : parameterValues.entrySet()) {
+            if (Pattern.compile(":" + e.getKey() + "\\b").matcher(column.getQuery()).find()) {
+                q.addParameter(e.getKey(), e.getValue());
+            }
+        }
+        return q;
+    }
+}
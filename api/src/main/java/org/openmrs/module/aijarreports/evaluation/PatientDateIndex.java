@@ -0,0 +1,39 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One date per patient (e.g. ART start date), computed once for a base cohort and shared through the EvaluationContext cache
+ */
+public class PatientDateIndex extends CohortScopedResult {
+
+    private final Map<Integer, Date> dates = new HashMap<Integer, Date>();
+
+    public PatientDateIndex(Cohort cohort) {
+        super(cohort);
+    }
+
+    public void put(Integer patientId, Date date) {
+        dates.put(patientId, date);
+    }
+
+    /**
+     * @return the date of the patient, null if the patient has none
+     */
+    public Date get(Integer patientId) {
+        return dates.get(patientId);
+    }
+
+    public boolean contains(Integer patientId) {
+        return dates.containsKey(patientId);
+    }
+
+    public Map<Integer, Date> getDates() {
+        return Collections.unmodifiableMap(dates);
+    }
+}
@@ -0,0 +1,52 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+import org.openmrs.Obs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The obs of each patient in order (e.g. one per pregnancy), read in one pass so that every ordinal column (first,
+ * second, third...) is answered from the same result
+ */
+public class PatientObsSequence extends CohortScopedResult {
+
+    private final Map<Integer, List<Obs>> obsByPatient = new HashMap<Integer, List<Obs>>();
+
+    public PatientObsSequence(Cohort cohort) {
+        super(cohort);
+    }
+
+    public void add(Integer patientId, Obs obs) {
+        List<Obs> obsList = obsByPatient.get(patientId);
+        if (obsList == null) {
+            obsList = new ArrayList<Obs>();
+            obsByPatient.put(patientId, obsList);
+        }
+        obsList.add(obs);
+    }
+
+    /**
+     * @return the last obs added for the patient, null if there is none
+     */
+    public Obs getLast(Integer patientId) {
+        List<Obs> obsList = obsByPatient.get(patientId);
+        return obsList == null ? null : obsList.get(obsList.size() - 1);
+    }
+
+    /**
+     * @return the obs at the zero based position of each patient who has one
+     */
+    public Map<Integer, Obs> getAt(int position) {
+        Map<Integer, Obs> ret = new HashMap<Integer, Obs>();
+        for (Map.Entry<Integer, List<Obs>> e : obsByPatient.entrySet()) {
+            if (position < e.getValue().size()) {
+                ret.put(e.getKey(), e.getValue().get(position));
+            }
+        }
+        return ret;
+    }
+}
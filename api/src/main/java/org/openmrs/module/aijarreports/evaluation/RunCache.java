@@ -0,0 +1,113 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Run-scoped store of the values several evaluators need, such as the per patient indexes. Like the CohortQueryPlanner
+ * store it holds futures and is shared with the contexts of worker threads, so a value being computed by one thread is
+ * waited for by the others rather than computed again for every task
+ */
+@Component
+public class RunCache {
+
+    public static final String VALUES = RunCache.class.getName() + ":values";
+
+    /**
+     * A computation of a value, run at most once per key and store
+     */
+    public interface Computation<T> {
+
+        T compute();
+    }
+
+    /**
+     * @return the value stored under the key, or computed now and stored if there is none. A value being computed by
+     * another thread is waited for
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, EvaluationContext context, final Computation<T> computation) {
+        ConcurrentMap<String, Future<Object>> values = getValues(context);
+        Future<Object> value = values.get(key);
+        if (value == null) {
+            FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return computation.compute();
+                }
+            });
+            value = values.putIfAbsent(key, task);
+            if (value == null) {
+                value = task;
+                task.run();
+            }
+        }
+        try {
+            return (T) value.get();
+        } catch (ExecutionException e) {
+            values.remove(key, value);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to compute " + key, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key, e);
+        }
+    }
+
+    /**
+     * @return the result stored under the key if it covers the base cohort of the context, otherwise a result computed
+     * now for that cohort, which replaces the stored one
+     */
+    public <T extends CohortScopedResult> T getCovering(String key, EvaluationContext context, Computation<T> computation) {
+        T result = get(key, context, computation);
+        if (!result.covers(context.getBaseCohort())) {
+            result = computation.compute();
+            put(key, result, context);
+        }
+        return result;
+    }
+
+    /**
+     * Stores the value under the key, replacing any value already stored
+     */
+    public void put(String key, Object value, EvaluationContext context) {
+        FutureTask<Object> done = new FutureTask<Object>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, value);
+        done.run();
+        getValues(context).put(key, done);
+    }
+
+    /**
+     * Makes the context of a worker thread use the store of the calling context
+     */
+    public void share(EvaluationContext from, EvaluationContext to) {
+        to.addToCache(VALUES, getValues(from));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ConcurrentMap<String, Future<Object>> getValues(EvaluationContext context) {
+        ConcurrentMap<String, Future<Object>> values = (ConcurrentMap<String, Future<Object>>) context.getFromCache(VALUES);
+        if (values == null) {
+            synchronized (context) {
+                values = (ConcurrentMap<String, Future<Object>>) context.getFromCache(VALUES);
+                if (values == null) {
+                    values = new ConcurrentHashMap<String, Future<Object>>();
+                    context.addToCache(VALUES, values);
+                }
+            }
+        }
+        return values;
+    }
+}
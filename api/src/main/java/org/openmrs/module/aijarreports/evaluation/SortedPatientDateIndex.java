@@ -0,0 +1,80 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.openmrs.Cohort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One date per patient (e.g. birthdate, last scheduled appointment) sorted ascending in primitive arrays, so the patients
+ * whose date falls in any interval are found with two binary searches. Built once per run and shared by every cohort
+ * that asks for an interval
+ */
+public class SortedPatientDateIndex extends CohortScopedResult {
+
+    private final long[] dates;
+
+    private final int[] patientIds;
+
+    /**
+     * @param rows patient id and date pairs, rows without a date are left out
+     */
+    public SortedPatientDateIndex(Cohort cohort, List<Object[]> rows) {
+        super(cohort);
+        List<Object[]> sorted = new ArrayList<Object[]>(rows.size());
+        for (Object[] row : rows) {
+            if (row[1] != null) {
+                sorted.add(row);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                return ((Date) a[1]).compareTo((Date) b[1]);
+            }
+        });
+        dates = new long[sorted.size()];
+        patientIds = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            patientIds[i] = (Integer) sorted.get(i)[0];
+            dates[i] = ((Date) sorted.get(i)[1]).getTime();
+        }
+    }
+
+    /**
+     * @param from the earliest date, inclusive, null for no lower bound
+     * @param to the latest date, inclusive, null for no upper bound
+     * @return the patients whose date is in the interval
+     */
+    public PatientBitmap getBetween(Date from, Date to) {
+        int start = from == null ? 0 : firstAtOrAfter(from.getTime());
+        int end = to == null ? dates.length : firstAtOrAfter(to.getTime() + 1);
+        PatientBitmap result = new PatientBitmap();
+        for (int i = start; i < end; i++) {
+            result.add(patientIds[i]);
+        }
+        return result;
+    }
+
+    public int size() {
+        return dates.length;
+    }
+
+    /**
+     * @return the index of the first date at or after the time, or the length if there is none
+     */
+    private int firstAtOrAfter(long time) {
+        int i = Arrays.binarySearch(dates, time);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && dates[i - 1] == time) {
+            i--;
+        }
+        return i;
+    }
+}
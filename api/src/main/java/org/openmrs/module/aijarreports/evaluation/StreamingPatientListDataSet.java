@@ -0,0 +1,381 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.apache.commons.io.IOUtils;
+import org.openmrs.Cohort;
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.aijarreports.definition.dataset.definition.StreamingPatientColumn;
+import org.openmrs.module.aijarreports.definition.dataset.definition.StreamingPatientListDataSetDefinition;
+import org.openmrs.module.reporting.common.ObjectUtil;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetColumn;
+import org.openmrs.module.reporting.dataset.DataSetMetaData;
+import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The rows of a StreamingPatientListDataSetDefinition, read while they are iterated. The first pass loads the cohort
+ * into the cohort member table on its first row and merges one PatientColumnCursor per column along the ascending
+ * patient ids, so the first row is available after one page per column. The values it reads are spilled to a temporary
+ * file rather than kept, so memory stays one page per column however many rows there are. Once a pass has read every
+ * row the values are fixed: later passes replay them from the file instead of querying again, so a report reads the
+ * same rows every time it is opened. The cohort is released when the pass ends, fails or is closed, and at the latest
+ * when the transaction commits; a rolled back transaction never kept it. The file is deleted when the data set is
+ * garbage collected, or at the latest when the JVM exits
+ */
+public class StreamingPatientListDataSet implements DataSet {
+
+    private final StreamingPatientListDataSetDefinition definition;
+
+    private final EvaluationContext context;
+
+    private final Cohort cohort;
+
+    private final int[] patientIds;
+
+    private final DataSetMetaData metaData = new DataSetMetaData();
+
+    /**
+     * The values of every row, written by the first pass that read them all
+     */
+    private transient File spill;
+
+    private transient CohortBinder cohortBinder;
+
+    private transient EvaluationService evaluationService;
+
+    /**
+     * @param patientIds the ids of the cohort members to list, in ascending order
+     */
+    public StreamingPatientListDataSet(StreamingPatientListDataSetDefinition definition, EvaluationContext context, Cohort cohort, int[] patientIds,
+                                       CohortBinder cohortBinder, EvaluationService evaluationService) {
+        this.definition = definition;
+        this.context = context;
+        this.cohort = cohort;
+        this.patientIds = patientIds;
+        this.cohortBinder = cohortBinder;
+        this.evaluationService = evaluationService;
+        for (StreamingPatientColumn column : definition.getColumns()) {
+            metaData.addColumn(new DataSetColumn(column.getName(), column.getName(), Object.class));
+        }
+    }
+
+    @Override
+    public StreamingPatientListDataSetDefinition getDefinition() {
+        return definition;
+    }
+
+    @Override
+    public EvaluationContext getContext() {
+        return context;
+    }
+
+    @Override
+    public DataSetMetaData getMetaData() {
+        return metaData;
+    }
+
+    /**
+     * @return an iterator over the rows, which the caller should close if it stops before the last row
+     */
+    @Override
+    public Iterator<DataSetRow> iterator() {
+        if (spill != null) {
+            return new ReplayIterator(spill);
+        }
+        return new RowIterator();
+    }
+
+    /**
+     * Reads every row that has not been read yet, after which the data set no longer queries the database
+     */
+    public void materialise() {
+        Iterator<DataSetRow> rows = iterator();
+        while (rows.hasNext()) {
+            rows.next();
+        }
+    }
+
+    /**
+     * Serializers save the values rather than the queries that read them. The saved copy holds every row, as any
+     * serialized form of the data must
+     */
+    private Object writeReplace() {
+        SimpleDataSet copy = new SimpleDataSet(definition, context);
+        Iterator<DataSetRow> rows = iterator();
+        while (rows.hasNext()) {
+            copy.addRow(rows.next());
+        }
+        return copy;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            if (spill != null) {
+                spill.delete();
+            }
+        } finally {
+            super.finalize();
+        }
+    }
+
+    protected CohortBinder getCohortBinder() {
+        if (cohortBinder == null) {
+            cohortBinder = Context.getRegisteredComponents(CohortBinder.class).get(0);
+        }
+        return cohortBinder;
+    }
+
+    protected EvaluationService getEvaluationService() {
+        if (evaluationService == null) {
+            evaluationService = Context.getService(EvaluationService.class);
+        }
+        return evaluationService;
+    }
+
+    protected DataSetRow toRow(Object[] rowValues) {
+        DataSetRow row = new DataSetRow();
+        for (int i = 0; i < rowValues.length; i++) {
+            row.addColumnValue(metaData.getColumns().get(i), rowValues[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Reads the rows back from the spill file, one at a time
+     */
+    private class ReplayIterator implements Iterator<DataSetRow>, Closeable {
+
+        private final File file;
+
+        private ObjectInputStream in;
+
+        private int position = 0;
+
+        ReplayIterator(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < patientIds.length;
+        }
+
+        @Override
+        public DataSetRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                if (in == null) {
+                    in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                }
+                Object[] rowValues = (Object[]) in.readObject();
+                position++;
+                if (!hasNext()) {
+                    close();
+                }
+                return toRow(rowValues);
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException("Unable to read the rows of " + definition.getName(), e);
+            } catch (ClassNotFoundException e) {
+                close();
+                throw new IllegalStateException("Unable to read the rows of " + definition.getName(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(in);
+            in = null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class RowIterator implements Iterator<DataSetRow>, Closeable {
+
+        private int position = 0;
+
+        private EvaluationContext runContext;
+
+        private File file;
+
+        private ObjectOutputStream out;
+
+        private final List<PatientColumnCursor> cursors = new ArrayList<PatientColumnCursor>();
+
+        private final Map<Integer, String> conceptNames = new HashMap<Integer, String>();
+
+        @Override
+        public boolean hasNext() {
+            return position < patientIds.length;
+        }
+
+        @Override
+        public DataSetRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            boolean done = false;
+            try {
+                if (runContext == null) {
+                    open();
+                }
+                int patientId = patientIds[position];
+                Object[] rowValues = new Object[cursors.size()];
+                for (int i = 0; i < cursors.size(); i++) {
+                    StreamingPatientColumn column = definition.getColumns().get(i);
+                    Object value = cursors.get(i).valueFor(patientId);
+                    if (value != null && column.getFormat() == StreamingPatientColumn.Format.CONCEPT_NAME) {
+                        value = getConceptName(((Number) value).intValue());
+                    }
+                    rowValues[i] = value;
+                }
+                spill(rowValues);
+                position++;
+                if (!hasNext()) {
+                    finishSpill();
+                    done = true;
+                }
+                return toRow(rowValues);
+            } catch (RuntimeException e) {
+                done = true;
+                throw e;
+            } finally {
+                if (done) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Loads the cohort, or leaves it unloaded in a read only transaction, in which case the cursors read every
+         * patient's rows and the merge skips those not in the list
+         */
+        protected void open() {
+            runContext = new EvaluationContext();
+            runContext.setBaseCohort(cohort);
+            getCohortBinder().beginRun(runContext);
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void beforeCommit(boolean readOnly) {
+                        close();
+                    }
+                });
+            }
+            String cohortKey = getCohortBinder().getCohortKey(runContext);
+            for (StreamingPatientColumn column : definition.getColumns()) {
+                cursors.add(new PatientColumnCursor(column, cohortKey, context.getParameterValues(), getEvaluationService()));
+            }
+            try {
+                file = File.createTempFile("aijarreports-rows", ".ser");
+                file.deleteOnExit();
+                out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } catch (IOException e) {
+                abortSpill();
+                throw new IllegalStateException("Unable to spill the rows of " + definition.getName(), e);
+            }
+        }
+
+        /**
+         * Writes the values of a row to the spill file. The stream is reset after each row so it does not keep a
+         * reference to every value written
+         */
+        protected void spill(Object[] rowValues) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeObject(rowValues);
+                out.reset();
+            } catch (IOException e) {
+                abortSpill();
+                throw new IllegalStateException("Unable to spill the rows of " + definition.getName(), e);
+            }
+        }
+
+        /**
+         * Makes the complete spill file the one later passes replay, unless another pass finished first
+         */
+        protected void finishSpill() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                abortSpill();
+                throw new IllegalStateException("Unable to spill the rows of " + definition.getName(), e);
+            }
+            out = null;
+            if (spill == null) {
+                spill = file;
+                file = null;
+            } else {
+                abortSpill();
+            }
+        }
+
+        protected void abortSpill() {
+            IOUtils.closeQuietly(out);
+            out = null;
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
+        }
+
+        /**
+         * Releases the cohort if it is still loaded, and drops the spill file of a pass that did not read every row
+         */
+        @Override
+        public void close() {
+            if (runContext != null) {
+                getCohortBinder().endRun(runContext);
+            }
+            abortSpill();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        protected String getConceptName(Integer conceptId) {
+            String name = conceptNames.get(conceptId);
+            if (name == null) {
+                Concept concept = Context.getConceptService().getConcept(conceptId);
+                name = ObjectUtil.format(concept);
+                conceptNames.put(conceptId, name);
+            }
+            return name;
+        }
+    }
+}
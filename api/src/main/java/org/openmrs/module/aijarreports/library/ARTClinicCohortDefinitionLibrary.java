@@ -1,5 +1,6 @@
 package org.openmrs.module.aijarreports.library;
 
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedEncounterCohortDefinition;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.EncounterCohortDefinition;
@@ -32,7 +33,7 @@ public class ARTClinicCohortDefinitionLibrary extends BaseDefinitionLibrary<Coho
 
 	@DocumentedDefinition(value = "enrolledincare", name = "Patients Enrolled in Care As of Date")
 	public CohortDefinition getPatientsEnrolledInCareBetweenStartAndEndDate() {
-		EncounterCohortDefinition q = new EncounterCohortDefinition();
+		EncounterCohortDefinition q = new CachedEncounterCohortDefinition();
 		q.setEncounterTypeList(hivMetadata.getARTSummaryPageEncounterType());
 		q.addParameter(df.getStartDateParameter());
 		q.addParameter(df.getEndDateParameter());
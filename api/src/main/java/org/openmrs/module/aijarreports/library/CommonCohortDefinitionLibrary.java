@@ -1,5 +1,8 @@
 package org.openmrs.module.aijarreports.library;
 
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedAgeCohortDefinition;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedGenderCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.CohortFingerprint;
 import org.openmrs.module.reporting.cohort.definition.AgeCohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
@@ -9,6 +12,7 @@ import org.openmrs.module.reporting.definition.library.DocumentedDefinition;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.springframework.stereotype.Component;
 
+import java.io.UnsupportedEncodingException;
 import java.util.Date;
 import java.util.UUID;
 
@@ -35,12 +39,10 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
      */
     @DocumentedDefinition(value = "gender.females", name = "Females")
     public CohortDefinition females() {
-        GenderCohortDefinition cd = new GenderCohortDefinition();
+        GenderCohortDefinition cd = new CachedGenderCohortDefinition();
         cd.setName("Females");
-        UUID uuid = UUID.randomUUID();
-        cd.setUuid(String.valueOf(uuid));
         cd.setFemaleIncluded(true);
-        return cd;
+        return identify(cd);
     }
 
     /**
@@ -50,12 +52,10 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
      */
     @DocumentedDefinition(value = "gender.males", name = "Males")
     public CohortDefinition males() {
-        GenderCohortDefinition cd = new GenderCohortDefinition();
-        UUID uuid = UUID.randomUUID();
-        cd.setUuid(String.valueOf(uuid));
+        GenderCohortDefinition cd = new CachedGenderCohortDefinition();
         cd.setName("Males");
         cd.setMaleIncluded(true);
-        return cd;
+        return identify(cd);
     }
 
     /**
@@ -64,13 +64,11 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
      * @return the cohort definition
      */
     public CohortDefinition agedAtMost(int maxAge) {
-        AgeCohortDefinition cd = new AgeCohortDefinition();
+        AgeCohortDefinition cd = new CachedAgeCohortDefinition();
         cd.setName("aged at most " + maxAge);
         cd.addParameter(new Parameter("effectiveDate", "Effective Date", Date.class));
         cd.setMaxAge(maxAge);
-        UUID uuid = UUID.randomUUID();
-        cd.setUuid(String.valueOf(uuid));
-        return cd;
+        return identify(cd);
     }
 
     /**
@@ -79,12 +77,10 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
      * @return the cohort definition
      */
     public CohortDefinition agedAtLeast(int minAge) {
-        AgeCohortDefinition cd = new AgeCohortDefinition();
+        AgeCohortDefinition cd = new CachedAgeCohortDefinition();
         cd.addParameter(new Parameter("effectiveDate", "Effective Date", Date.class));
         cd.setMinAge(minAge);
-        UUID uuid = UUID.randomUUID();
-        cd.setUuid(String.valueOf(uuid));
-        return cd;
+        return identify(cd);
     }
 
     /**
@@ -93,20 +89,18 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
      * @return the cohort definition
      */
     public CohortDefinition agedBetween(int minAge, int maxAge) {
-        AgeCohortDefinition cd = new AgeCohortDefinition();
+        AgeCohortDefinition cd = new CachedAgeCohortDefinition();
         cd.addParameter(new Parameter("effectiveDate", "Effective Date", Date.class));
         cd.setMinAge(minAge);
         cd.setMaxAge(maxAge);
-        return cd;
+        return identify(cd);
     }
 
     @DocumentedDefinition(value = "age.below6months", name = "< 6 months")
     public CohortDefinition below6months() {
         AgeCohortDefinition cd = (AgeCohortDefinition) agedAtMost(6);
         cd.setMinAgeUnit(DurationUnit.MONTHS);
-        UUID uuid = UUID.randomUUID();
-        cd.setUuid(String.valueOf(uuid));
-        return cd;
+        return identify(cd);
     }
 
     @DocumentedDefinition(value = "age.below2yrs", name = "< 2 years")
@@ -119,9 +113,7 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
         AgeCohortDefinition cd = (AgeCohortDefinition) agedBetween(6, 59);
         cd.setMinAgeUnit(DurationUnit.MONTHS);
         cd.setMaxAgeUnit(DurationUnit.MONTHS);
-        UUID uuid = UUID.randomUUID();
-        cd.setUuid(String.valueOf(uuid));
-        return cd;
+        return identify(cd);
     }
 
     @DocumentedDefinition(value = "age.0to4yrs", name = "0 - 4 years")
@@ -164,4 +156,19 @@ public class CommonCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortD
         return agedAtLeast(11);
     }
 
+    /**
+     * Gives the definition a uuid derived from its structural fingerprint, so every call for the same cohort returns a
+     * definition with the same identity and evaluation caches can recognise it
+     *
+     * @return the definition
+     */
+    protected CohortDefinition identify(CohortDefinition cd) {
+        String fingerprint = getKeyPrefix() + CohortFingerprint.of(cd);
+        try {
+            cd.setUuid(UUID.nameUUIDFromBytes(fingerprint.getBytes("UTF-8")).toString());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return cd;
+    }
 }
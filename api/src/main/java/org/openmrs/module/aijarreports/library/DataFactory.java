@@ -2,11 +2,15 @@ package org.openmrs.module.aijarreports.library;
 
 import org.openmrs.*;
 import org.openmrs.api.PatientSetService;
+import org.openmrs.module.aijarreports.common.ObsValue;
 import org.openmrs.module.aijarreports.common.Period;
 import org.openmrs.module.aijarreports.definition.cohort.definition.*;
+import org.openmrs.module.aijarreports.definition.data.converter.IdResolvingConverter;
 import org.openmrs.module.aijarreports.definition.data.converter.PatientIdentifierConverter;
+import org.openmrs.module.aijarreports.definition.data.definition.BatchConvertedPatientDataDefinition;
 import org.openmrs.module.aijarreports.definition.data.definition.EMTCTPatientDataDefinition;
 import org.openmrs.module.aijarreports.definition.data.definition.FUStatusPatientDataDefinition;
+import org.openmrs.module.aijarreports.definition.data.definition.LongitudinalObsPivotDataDefinition;
 import org.openmrs.module.aijarreports.definition.data.definition.ObsForPersonInPeriodDataDefinition;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
 import org.openmrs.module.reporting.ReportingConstants;
@@ -162,7 +166,12 @@ public class DataFactory {
     }
 
     public PatientDataDefinition convert(PatientDataDefinition pdd, Map<String, String> renamedParameters, DataConverter converter) {
-        ConvertedPatientDataDefinition convertedDefinition = new ConvertedPatientDataDefinition();
+        ConvertedPatientDataDefinition convertedDefinition;
+        if (converter instanceof IdResolvingConverter) {
+            convertedDefinition = new BatchConvertedPatientDataDefinition();
+        } else {
+            convertedDefinition = new ConvertedPatientDataDefinition();
+        }
         addAndConvertMappings(pdd, convertedDefinition, renamedParameters, converter);
         return convertedDefinition;
     }
@@ -199,19 +208,19 @@ public class DataFactory {
     // Composition Cohorts
 
     public CompositionCohortDefinition getPatientsInAny(CohortDefinition... elements) {
-        CompositionCohortDefinition cd = new CompositionCohortDefinition();
+        CompositionCohortDefinition cd = new BitmapCompositionCohortDefinition();
         cd.initializeFromQueries(BooleanOperator.OR, elements);
         return cd;
     }
 
     public CompositionCohortDefinition getPatientsNotIn(CohortDefinition... elements) {
-        CompositionCohortDefinition cd = new CompositionCohortDefinition();
+        CompositionCohortDefinition cd = new BitmapCompositionCohortDefinition();
         cd.initializeFromQueries(BooleanOperator.NOT, elements);
         return cd;
     }
 
     public CompositionCohortDefinition createPatientComposition(Object... elements) {
-        CompositionCohortDefinition cd = new CompositionCohortDefinition();
+        CompositionCohortDefinition cd = new BitmapCompositionCohortDefinition();
         cd.initializeFromElements(elements);
         return cd;
     }
@@ -378,6 +387,15 @@ public class DataFactory {
         return convert(def, ObjectUtil.toMap("startDate=startDate"), converter);
     }
 
+    public PatientDataDefinition havingEncounterDuringPeriod(Period period, Integer periodToAdd, List<Integer> batchPeriodsToAdd, DataConverter converter) {
+        FUStatusPatientDataDefinition def = new FUStatusPatientDataDefinition();
+        def.setPeriod(period);
+        def.setPeriodToAdd(periodToAdd);
+        def.setBatchPeriodsToAdd(batchPeriodsToAdd);
+        def.addParameter(new Parameter("startDate", "Start Date", Date.class));
+        return convert(def, ObjectUtil.toMap("startDate=startDate"), converter);
+    }
+
 
     //
 
@@ -396,6 +414,9 @@ public class DataFactory {
         if (keys.contains("whichEncounter")) {
             whichEncounter = (TimeQualifier) args.get("whichEncounter");
         }
+        if (keys.contains("valueFields")) {
+            def.setValueFields((List<ObsValue.Field>) args.get("valueFields"));
+        }
         def.setWhichEncounter(whichEncounter);
         def.setPeriod(period);
         def.setPeriodToAdd(periodToAdd);
@@ -403,6 +424,18 @@ public class DataFactory {
         return convert(def, ObjectUtil.toMap("startDate=startDate"), converter);
     }
 
+    public PatientDataDefinition getPivotedObsValueDuringPeriod(Concept question, List<Concept> pivotConcepts, Period period, int numberOfPeriods, Integer periodToAdd, TimeQualifier whichObs, DataConverter converter) {
+        LongitudinalObsPivotDataDefinition def = new LongitudinalObsPivotDataDefinition();
+        def.setQuestion(question);
+        def.setConcepts(pivotConcepts);
+        def.setPeriod(period);
+        def.setNumberOfPeriods(numberOfPeriods);
+        def.setPeriodToAdd(periodToAdd);
+        def.setWhichObs(whichObs);
+        def.addParameter(new Parameter("startDate", "Start Date", Date.class));
+        return convert(def, ObjectUtil.toMap("startDate=startDate"), converter);
+    }
+
     public PatientDataDefinition getAgeOnEffectiveDate(DataConverter converter) {
         AgeDataDefinition def = new AgeDataDefinition();
         def.addParameter(new Parameter("startDate", "Start Date", Date.class));
@@ -430,21 +463,21 @@ public class DataFactory {
     }
 
     public CohortDefinition getAnyEncounterOfTypesWithinMonthsByEndDate(List<EncounterType> types, int numMonths) {
-        EncounterCohortDefinition cd = new EncounterCohortDefinition();
+        EncounterCohortDefinition cd = new CachedEncounterCohortDefinition();
         cd.setEncounterTypeList(types);
         cd.addParameter(new Parameter("onOrAfter", "On or After", Date.class));
         return convert(cd, ObjectUtil.toMap("onOrAfter=endDate-" + numMonths + "m+1d"));
     }
 
     public CohortDefinition getAnyEncounterOfTypesByEndOfPreviousDate(List<EncounterType> types) {
-        EncounterCohortDefinition cd = new EncounterCohortDefinition();
+        EncounterCohortDefinition cd = new CachedEncounterCohortDefinition();
         cd.setEncounterTypeList(types);
         cd.addParameter(new Parameter("onOrBefore", "On or Before", Date.class));
         return convert(cd, ObjectUtil.toMap("onOrBefore=startDate-1d"));
     }
 
     public CohortDefinition getAnyEncounterOfTypesBetweenDates(List<EncounterType> types) {
-        EncounterCohortDefinition cd = new EncounterCohortDefinition();
+        EncounterCohortDefinition cd = new CachedEncounterCohortDefinition();
         cd.setEncounterTypeList(types);
         cd.addParameter(new Parameter("onOrAfter", "On or After", Date.class));
         cd.addParameter(new Parameter("onOrBefore", "On or Before", Date.class));
@@ -452,7 +485,7 @@ public class DataFactory {
     }
 
     public CompositionCohortDefinition getPatientsInAll(CohortDefinition... elements) {
-        CompositionCohortDefinition cd = new CompositionCohortDefinition();
+        CompositionCohortDefinition cd = new BitmapCompositionCohortDefinition();
         cd.initializeFromQueries(BooleanOperator.AND, elements);
         return cd;
     }
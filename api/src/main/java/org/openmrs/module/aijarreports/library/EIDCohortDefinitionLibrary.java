@@ -2,6 +2,7 @@ package org.openmrs.module.aijarreports.library;
 
 import org.openmrs.Concept;
 import org.openmrs.api.PatientSetService;
+import org.openmrs.module.aijarreports.definition.cohort.definition.CachedEncounterCohortDefinition;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
 import org.openmrs.module.reporting.cohort.definition.BaseObsCohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.CodedObsCohortDefinition;
@@ -39,7 +40,7 @@ public class EIDCohortDefinitionLibrary extends BaseDefinitionLibrary<CohortDefi
 
     @DocumentedDefinition(value = "exposedinfant", name = "Exposed Infants in Period")
     public CohortDefinition getEnrolledInCareDuringPeriod() {
-        EncounterCohortDefinition q = new EncounterCohortDefinition();
+        EncounterCohortDefinition q = new CachedEncounterCohortDefinition();
         q.setEncounterTypeList(hivMetadata.getEIDSummaryPageEncounterType());
         q.addParameter(df.getStartDateParameter());
         q.addParameter(df.getEndDateParameter());
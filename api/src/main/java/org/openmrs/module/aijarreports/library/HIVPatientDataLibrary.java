@@ -4,6 +4,7 @@ import org.openmrs.Concept;
 import org.openmrs.EncounterType;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.aijarreports.common.ObsValue;
 import org.openmrs.module.aijarreports.common.Period;
 import org.openmrs.module.aijarreports.definition.data.converter.*;
 import org.openmrs.module.aijarreports.definition.data.definition.FUStatusPatientDataDefinition;
@@ -40,6 +41,17 @@ import java.util.*;
  */
 @Component
 public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefinition> {
+
+    /**
+     * Number of months followed up on the ART register
+     */
+    public static final int ART_REGISTER_MONTHS = 72;
+
+    /**
+     * Number of quarters followed up on the pre-ART register
+     */
+    public static final int PRE_ART_REGISTER_QUARTERS = 16;
+
     @Autowired
     private DataFactory df;
 
@@ -134,23 +146,23 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getFirstEID() {
-        return getSummaryPageObsValue(hivMetadata.getPCRAtEnrollment(), df.getObsValueNumericConverter());
+        return getStatusAtEnrollment(StatusAtEnrollmentPatientDatasetDefinition.EID, df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getFirstLactating() {
-        return getSummaryPageObsValue(hivMetadata.getLactatingAtEnrollment(), df.getObsValueNumericConverter());
+        return getStatusAtEnrollment(StatusAtEnrollmentPatientDatasetDefinition.LACTATING, df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getFirstTB() {
-        return getSummaryPageObsValue(hivMetadata.getTBAtEnrollment(), df.getObsValueNumericConverter());
+        return getStatusAtEnrollment(StatusAtEnrollmentPatientDatasetDefinition.TB, df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getFirstPregnant() {
-        return getSummaryPageObsValue(hivMetadata.getPregnantAtEnrollment(), df.getObsValueNumericConverter());
+        return getStatusAtEnrollment(StatusAtEnrollmentPatientDatasetDefinition.PREGNANT, df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getFirstTransferIn() {
-        return getSummaryPageObsValue(hivMetadata.getTransferInAtEnrollment(), new TIStatusConverter());
+        return getStatusAtEnrollment(StatusAtEnrollmentPatientDatasetDefinition.TI, new TIStatusConverter());
     }
 
     public PatientDataDefinition getCPTStartDate() {
@@ -158,23 +170,23 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getCPTStatusDuringQuarter(Integer num) {
-        return getLastObsValueDuringQuarter(hivMetadata.getCPTDosage(), num, new YesConverter());
+        return getLastObsValueDuringQuarter(hivMetadata.getCPTDosage(), num, Collections.<ObsValue.Field>emptyList(), new YesConverter());
     }
 
     public PatientDataDefinition getCPTStatusDuringMonth(Integer num) {
-        return getLastObsValueDuringMonth(hivMetadata.getCPTDosage(), num, new YesConverter());
+        return getPivotedObsValueDuringMonth(hivMetadata.getCPTDosage(), num, new YesConverter());
     }
 
     public PatientDataDefinition getINHStatusDuringQuarter(Integer num) {
-        return getLastObsValueDuringQuarter(hivMetadata.getINHDosage(), num, new YesConverter());
+        return getLastObsValueDuringQuarter(hivMetadata.getINHDosage(), num, Collections.<ObsValue.Field>emptyList(), new YesConverter());
     }
 
     public PatientDataDefinition getTBStatusDuringQuarter(Integer num) {
-        return getLastObsValueDuringQuarter(hivMetadata.getTBStatus(), num, new TBStatusConverter());
+        return getLastObsValueDuringQuarter(hivMetadata.getTBStatus(), num, Arrays.asList(ObsValue.Field.VALUE_CODED), new TBStatusConverter());
     }
 
     public PatientDataDefinition getTBStatusDuringMonth(Integer num) {
-        return getLastObsValueDuringMonth(hivMetadata.getTBStatus(), num, new TBStatusConverter());
+        return getPivotedObsValueDuringMonth(hivMetadata.getTBStatus(), num, new TBStatusConverter());
     }
 
     public PatientDataDefinition getDeadStatusDuringQuarter(Integer num) {
@@ -186,11 +198,11 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getCD4DuringQuarter(Integer num) {
-        return getLastObsValueDuringQuarter(hivMetadata.getCD4(), num, df.getObsValueNumericConverter());
+        return getLastObsValueDuringQuarter(hivMetadata.getCD4(), num, Arrays.asList(ObsValue.Field.VALUE_NUMERIC), df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getCD4DuringMonth(Integer num) {
-        return getLastObsValueDuringMonth(hivMetadata.getCD4(), num, df.getObsValueNumericConverter());
+        return getLastObsValueDuringMonth(hivMetadata.getCD4(), num, Arrays.asList(ObsValue.Field.VALUE_NUMERIC), df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getNutritionalStatusDuringQuarter(Integer num) {
@@ -198,11 +210,11 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getARVRegimenDuringMonth(Integer num) {
-        return getLastObsValueDuringMonth(hivMetadata.getCurrentRegimen(), num, new ARVConverter());
+        return getPivotedObsValueDuringMonth(hivMetadata.getCurrentRegimen(), num, new ARVConverter());
     }
 
     public PatientDataDefinition getARVADHDuringMonth(Integer num) {
-        return getLastObsValueDuringMonth(hivMetadata.getAdherence(), num, df.getObsValueCodedConverter());
+        return getPivotedObsValueDuringMonth(hivMetadata.getAdherence(), num, df.getObsValueCodedConverter());
     }
 
     public PatientDataDefinition getINHStartDate() {
@@ -251,9 +263,18 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getStatusAtEnrollment() {
-        StatusAtEnrollmentPatientDatasetDefinition def = new StatusAtEnrollmentPatientDatasetDefinition();
         MapConverter c = new MapConverter(": ", ", ", null, new ObjectFormatter());
-        return df.convert(def, c);
+        return getStatusAtEnrollment(null, c);
+    }
+
+    /**
+     * @param status one of the StatusAtEnrollmentPatientDatasetDefinition statuses, null for all of them
+     */
+    protected PatientDataDefinition getStatusAtEnrollment(String status, DataConverter converter) {
+        StatusAtEnrollmentPatientDatasetDefinition def = new StatusAtEnrollmentPatientDatasetDefinition();
+        def.setStatus(status);
+        def.addParameter(new Parameter("startDate", "Start Date", Date.class));
+        return df.convert(def, ObjectUtil.toMap("startDate=startDate"), converter);
     }
 
     public PatientDataDefinition getFUStatus(Integer periodToAdd) {
@@ -275,11 +296,19 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition havingEncounterDuringQuarter(Integer quarter) {
-        return df.havingEncounterDuringPeriod(Period.QUARTERLY, quarter, new LastSeenConverter());
+        return df.havingEncounterDuringPeriod(Period.QUARTERLY, quarter, getPeriodOffsets(PRE_ART_REGISTER_QUARTERS), new LastSeenConverter());
     }
 
     public PatientDataDefinition havingEncounterDuringMonth(Integer quarter) {
-        return df.havingEncounterDuringPeriod(Period.MONTHLY, quarter, new LastSeenConverter());
+        return df.havingEncounterDuringPeriod(Period.MONTHLY, quarter, getPeriodOffsets(ART_REGISTER_MONTHS), new LastSeenConverter());
+    }
+
+    protected List<Integer> getPeriodOffsets(int numberOfPeriods) {
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (int i = 0; i < numberOfPeriods; i++) {
+            offsets.add(i);
+        }
+        return offsets;
     }
 
     @DocumentedDefinition(value = "cd4atenrollment", name = "CD4 at Enrollment")
@@ -380,6 +409,14 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
         return df.getObsValueDuringPeriod(question, periodToAdd, map, converter);
     }
 
+    protected PatientDataDefinition getFirstObsValueDuringMonth(Concept question, Integer periodToAdd, List<ObsValue.Field> valueFields, DataConverter converter) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("whichEncounter", TimeQualifier.FIRST);
+        map.put("period", Period.MONTHLY);
+        map.put("valueFields", valueFields);
+        return df.getObsValueDuringPeriod(question, periodToAdd, map, converter);
+    }
+
     protected PatientDataDefinition getLastObsValueDuringQuarter(Concept question, Integer periodToAdd, DataConverter converter) {
         Map<String, Object> map = new HashMap<String, Object>();
         map.put("whichEncounter", TimeQualifier.LAST);
@@ -387,6 +424,14 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
         return df.getObsValueDuringPeriod(question, periodToAdd, map, converter);
     }
 
+    protected PatientDataDefinition getLastObsValueDuringQuarter(Concept question, Integer periodToAdd, List<ObsValue.Field> valueFields, DataConverter converter) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("whichEncounter", TimeQualifier.LAST);
+        map.put("period", Period.QUARTERLY);
+        map.put("valueFields", valueFields);
+        return df.getObsValueDuringPeriod(question, periodToAdd, map, converter);
+    }
+
     protected PatientDataDefinition getLastObsValueDuringMonth(Concept question, Integer periodToAdd, DataConverter converter) {
         Map<String, Object> map = new HashMap<String, Object>();
         map.put("whichEncounter", TimeQualifier.LAST);
@@ -394,6 +439,26 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
         return df.getObsValueDuringPeriod(question, periodToAdd, map, converter);
     }
 
+    protected PatientDataDefinition getLastObsValueDuringMonth(Concept question, Integer periodToAdd, List<ObsValue.Field> valueFields, DataConverter converter) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("whichEncounter", TimeQualifier.LAST);
+        map.put("period", Period.MONTHLY);
+        map.put("valueFields", valueFields);
+        return df.getObsValueDuringPeriod(question, periodToAdd, map, converter);
+    }
+
+    /**
+     * The concepts tracked month by month on the ART register, they are pivoted together so that all monthly columns
+     * are filled from one scan of the obs table
+     */
+    protected List<Concept> getArtRegisterMonthlyConcepts() {
+        return Arrays.asList(hivMetadata.getCPTDosage(), hivMetadata.getTBStatus(), hivMetadata.getCurrentRegimen(), hivMetadata.getAdherence());
+    }
+
+    protected PatientDataDefinition getPivotedObsValueDuringMonth(Concept question, Integer periodToAdd, DataConverter converter) {
+        return df.getPivotedObsValueDuringPeriod(question, getArtRegisterMonthlyConcepts(), Period.MONTHLY, ART_REGISTER_MONTHS, periodToAdd, TimeQualifier.LAST, converter);
+    }
+
     // ART Register Definitions
 
     public PatientDataDefinition getPatientARTStartDate() {
@@ -409,11 +474,11 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getBaselineWeight() {
-        return getFirstObsValueDuringMonth(hivMetadata.getBaselineBodyWeight(), 0, df.getObsValueNumericConverter());
+        return getFirstObsValueDuringMonth(hivMetadata.getBaselineBodyWeight(), 0, Arrays.asList(ObsValue.Field.VALUE_NUMERIC), df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getArtBaselineCD4() {
-        return getFirstObsValueDuringMonth(hivMetadata.getBaselineCD4(), 0, df.getObsValueNumericConverter());
+        return getFirstObsValueDuringMonth(hivMetadata.getBaselineCD4(), 0, Arrays.asList(ObsValue.Field.VALUE_NUMERIC), df.getObsValueNumericConverter());
     }
 
     public PatientDataDefinition getBaselineWHOStage() {
@@ -425,7 +490,7 @@ public class HIVPatientDataLibrary extends BaseDefinitionLibrary<PatientDataDefi
     }
 
     public PatientDataDefinition getBaseRegimen() {
-        return getFirstObsValueDuringMonth(hivMetadata.getArtStartRegimen(), 0, new ARVConverter());
+        return getFirstObsValueDuringMonth(hivMetadata.getArtStartRegimen(), 0, Arrays.asList(ObsValue.Field.VALUE_CODED), new ARVConverter());
     }
 
     public PatientDataDefinition getEDDDate(int pregnancyNo) {
@@ -1,8 +1,12 @@
 package org.openmrs.module.aijarreports.library;
 
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.aijarreports.evaluation.CohortMemberTable;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.data.patient.definition.SqlPatientDataDefinition;
+import org.openmrs.module.reporting.evaluation.querybuilder.SqlQueryBuilder;
 
+import java.util.Collection;
 import java.util.Date;
 
 /**
@@ -36,25 +40,57 @@ public class PatientDatasets {
         return sqlPatientDataDefinition;
     }
 
-    public static SqlPatientDataDefinition getFUStatus(Date startDate, Date endDate) {
+    /**
+     * Follow up status of each patient in the period as typed columns, a patient with several transfer out obs gets a
+     * row for each of them. Columns are patient_id, encounter date, days since last appointment, death date, transfer out answer, next appointment,
+     * ART start date and last visit
+     */
+    public static SqlQueryBuilder getFUStatus(Date startDate, Date endDate) {
+        return getFUStatus(startDate, endDate, null);
+    }
+
+    /**
+     * @param cohortKey the key the patients to restrict to were loaded under in the cohort member table, null for all.
+     *                  Every subquery joins on it so only the rows of those patients are read
+     * @see org.openmrs.module.aijarreports.evaluation.CohortMemberTable
+     */
+    public static SqlQueryBuilder getFUStatus(Date startDate, Date endDate, String cohortKey) {
+        return getFUStatus(startDate, endDate, cohortKey, null);
+    }
+
+    /**
+     * @param patientIds the ids of the patients to restrict to when they are not loaded under a cohort key, null for
+     *                   all. Every subquery is restricted to them, so callers keep the number of ids bounded
+     */
+    public static SqlQueryBuilder getFUStatus(Date startDate, Date endDate, String cohortKey, Collection<Integer> patientIds) {
 
         StringBuilder sb = new StringBuilder();
         sb.append("SELECT \n");
         sb.append("    enc1.patient_id,\n");
-        sb.append("    CONCAT_WS(',', COALESCE(DATE(enc2.enc_date), '-'), COALESCE(ob.visit, '-'),COALESCE(DATE(per.death_date), '-'),COALESCE(ob1.value_coded, '-'),COALESCE(ob2.next_visit, '-'),COALESCE(ob4.art_start, '-'),COALESCE(ob5.last_visit, '-'))\n");
+        sb.append("    DATE(enc2.enc_date),\n");
+        sb.append("    ob.visit,\n");
+        sb.append("    DATE(per.death_date),\n");
+        sb.append("    ob1.value_coded,\n");
+        sb.append("    DATE(ob2.next_visit),\n");
+        sb.append("    DATE(ob4.art_start),\n");
+        sb.append("    DATE(ob5.last_visit)\n");
         sb.append("FROM\n");
         sb.append("    (SELECT \n");
         sb.append("        e1.patient_id\n");
         sb.append("    FROM\n");
         sb.append("        encounter e1\n");
+        sb.append(cohortJoin("e1.patient_id", cohortKey));
+        sb.append(cohortIn("WHERE", "e1.patient_id", patientIds));
         sb.append("    GROUP BY e1.patient_id) enc1\n");
         sb.append("        LEFT JOIN\n");
         sb.append("    (SELECT \n");
         sb.append("        e2.patient_id, MAX(e2.encounter_datetime) AS 'enc_date'\n");
         sb.append("    FROM\n");
         sb.append("        encounter e2\n");
+        sb.append(cohortJoin("e2.patient_id", cohortKey));
         sb.append("    WHERE\n");
         sb.append("        e2.encounter_datetime BETWEEN '" + DateUtil.formatDate(startDate, "yyyy-MM-dd") + "' AND '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "'\n");
+        sb.append(cohortIn("AND", "e2.patient_id", patientIds));
         sb.append("    GROUP BY e2.patient_id) enc2 ON (enc1.patient_id = enc2.patient_id)\n");
         sb.append("        LEFT JOIN\n");
         sb.append("    (SELECT \n");
@@ -62,57 +98,96 @@ public class PatientDatasets {
         sb.append("            DATEDIFF('" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "', MAX(o.value_datetime)) AS 'visit'\n");
         sb.append("    FROM\n");
         sb.append("        obs o\n");
+        sb.append(cohortJoin("o.person_id", cohortKey));
         sb.append("    WHERE\n");
         sb.append("        o.concept_id = 5096\n");
         sb.append("            AND o.value_datetime <= '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "'\n");
+        sb.append(cohortIn("AND", "o.person_id", patientIds));
         sb.append("    GROUP BY o.person_id) ob ON (enc1.patient_id = ob.person_id)\n");
         sb.append("        LEFT JOIN\n");
         sb.append("    (SELECT \n");
         sb.append("        p.person_id, p.death_date AS 'death_date'\n");
         sb.append("    FROM\n");
         sb.append("        person p\n");
+        sb.append(cohortJoin("p.person_id", cohortKey));
         sb.append("    WHERE\n");
-        sb.append("        p.death_date BETWEEN '" + DateUtil.formatDate(startDate, "yyyy-MM-dd") + "' AND '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "') per ON (per.person_id = enc1.patient_id)\n");
+        sb.append("        p.death_date BETWEEN '" + DateUtil.formatDate(startDate, "yyyy-MM-dd") + "' AND '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "'\n");
+        sb.append(cohortIn("AND", "p.person_id", patientIds));
+        sb.append("    ) per ON (per.person_id = enc1.patient_id)\n");
         sb.append("        LEFT JOIN\n");
         sb.append("    (SELECT \n");
         sb.append("        o2.value_coded, o2.person_id\n");
         sb.append("    FROM\n");
         sb.append("        obs o2\n");
+        sb.append(cohortJoin("o2.person_id", cohortKey));
         sb.append("    WHERE\n");
         sb.append("        o2.concept_id = 90306\n");
-        sb.append("            AND o2.obs_datetime <= '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "') ob1 ON (ob1.person_id = enc1.patient_id)\n");
+        sb.append("            AND o2.obs_datetime <= '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "'\n");
+        sb.append(cohortIn("AND", "o2.person_id", patientIds));
+        sb.append("    ) ob1 ON (ob1.person_id = enc1.patient_id)\n");
         sb.append("        LEFT OUTER JOIN\n");
         sb.append("    (SELECT \n");
         sb.append("        o3.person_id, MIN(o3.value_datetime) AS 'next_visit'\n");
         sb.append("    FROM\n");
         sb.append("        obs o3\n");
+        sb.append(cohortJoin("o3.person_id", cohortKey));
         sb.append("    WHERE\n");
         sb.append("        o3.concept_id = 5096\n");
         sb.append("            AND o3.value_datetime > '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "'\n");
+        sb.append(cohortIn("AND", "o3.person_id", patientIds));
         sb.append("    GROUP BY o3.person_id) ob2 ON (ob2.person_id = enc1.patient_id)");
         sb.append("        LEFT JOIN\n");
         sb.append("    (SELECT \n");
         sb.append("        o4.value_datetime AS 'art_start', o4.person_id \n");
         sb.append("    FROM\n");
         sb.append("        obs o4\n");
+        sb.append(cohortJoin("o4.person_id", cohortKey));
         sb.append("    WHERE\n");
         sb.append("        o4.concept_id = 99161 AND o4.voided = 0 \n");
+        sb.append(cohortIn("AND", "o4.person_id", patientIds));
         sb.append("            GROUP BY o4.person_id) ob4 ON (ob4.person_id = enc1.patient_id)\n");
         sb.append("        LEFT JOIN\n");
         sb.append("    (SELECT \n");
         sb.append("        MAX(o5.obs_datetime) AS 'last_visit', o5.person_id \n");
         sb.append("    FROM\n");
         sb.append("        obs o5\n");
+        sb.append(cohortJoin("o5.person_id", cohortKey));
         sb.append("    WHERE\n");
         sb.append("        o5.obs_datetime BETWEEN '" + DateUtil.formatDate(startDate, "yyyy-MM-dd") + "' AND '" + DateUtil.formatDate(endDate, "yyyy-MM-dd") + "'\n");
         sb.append("        AND o5.voided = 0 \n");
+        sb.append(cohortIn("AND", "o5.person_id", patientIds));
         sb.append("            GROUP BY o5.person_id) ob5 ON (ob5.person_id = enc1.patient_id)\n");
 
+        SqlQueryBuilder q = new SqlQueryBuilder();
+        q.append(sb.toString());
+        if (cohortKey != null) {
+            q.addParameter("cohortKey", cohortKey);
+        }
 
-        SqlPatientDataDefinition sqlPatientDataDefinition = new SqlPatientDataDefinition();
+        return q;
+    }
 
-        sqlPatientDataDefinition.setSql(sb.toString());
+    /**
+     * @return a join restricting the patient column to the patients loaded under the cohort key, empty if there is no key
+     */
+    protected static String cohortJoin(String patientColumn, String cohortKey) {
+        if (cohortKey == null) {
+            return "";
+        }
+        String alias = "cm_" + patientColumn.substring(0, patientColumn.indexOf('.'));
+        return "        INNER JOIN " + CohortMemberTable.TABLE_NAME + " " + alias + " ON (" + alias + ".patient_id = " + patientColumn + " AND " + alias + ".cohort_key = :cohortKey)\n";
+    }
 
-        return sqlPatientDataDefinition;
+    /**
+     * @return a condition restricting the patient column to the patient ids, empty if there are no ids to restrict to
+     */
+    protected static String cohortIn(String keyword, String patientColumn, Collection<Integer> patientIds) {
+        if (patientIds == null) {
+            return "";
+        }
+        if (patientIds.isEmpty()) {
+            return "        " + keyword + " 1 = 0\n";
+        }
+        return "        " + keyword + " " + patientColumn + " IN (" + StringUtils.join(patientIds, ",") + ")\n";
     }
 }
@@ -0,0 +1,91 @@
+package org.openmrs.module.aijarreports.library;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.aijarreports.definition.dataset.definition.StreamingPatientColumn;
+import org.openmrs.module.reporting.common.TimeQualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Native SQL columns for streaming patient lists, matching the patient data definitions of the same names in the
+ * data libraries. Columns "by end date" take the endDate parameter and include the whole of that day
+ */
+@Component
+public class StreamingColumnFactory {
+
+    private static final String ON_OR_BEFORE_END_DATE = " < date_add(:endDate, interval 1 day)";
+
+    public StreamingPatientColumn getPreferredIdentifier(PatientIdentifierType type) {
+        return new StreamingPatientColumn(
+                "select pi.patient_id, pi.identifier from patient_identifier pi where pi.voided = 0 and pi.identifier_type = " + type.getPatientIdentifierTypeId(),
+                "pi.patient_id", "pi.preferred desc, pi.patient_identifier_id", StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getPreferredFamilyName() {
+        return getPreferredName("pn.family_name");
+    }
+
+    public StreamingPatientColumn getPreferredGivenName() {
+        return getPreferredName("pn.given_name");
+    }
+
+    protected StreamingPatientColumn getPreferredName(String column) {
+        return new StreamingPatientColumn(
+                "select pn.person_id, " + column + " from person_name pn where pn.voided = 0",
+                "pn.person_id", "pn.preferred desc, pn.person_name_id", StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getGender() {
+        return getPersonColumn("p.gender");
+    }
+
+    public StreamingPatientColumn getBirthdate() {
+        return getPersonColumn("p.birthdate");
+    }
+
+    public StreamingPatientColumn getAgeAtEnd() {
+        return getPersonColumn("timestampdiff(YEAR, p.birthdate, :endDate)");
+    }
+
+    protected StreamingPatientColumn getPersonColumn(String column) {
+        return new StreamingPatientColumn(
+                "select p.person_id, " + column + " from person p where p.voided = 0",
+                "p.person_id", null, StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getEncounterDatetimeByEndDate(EncounterType type, TimeQualifier which) {
+        return new StreamingPatientColumn(
+                "select e.patient_id, e.encounter_datetime from encounter e where e.voided = 0 and e.encounter_type = " + type.getEncounterTypeId()
+                        + " and e.encounter_datetime" + ON_OR_BEFORE_END_DATE,
+                "e.patient_id", order(which, "e.encounter_datetime", "e.encounter_id"), StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getObsDatetimeByEndDate(Concept question, TimeQualifier which) {
+        return getObsByEndDate(question, "o.obs_datetime", which, StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getObsValueDatetimeByEndDate(Concept question, TimeQualifier which) {
+        return getObsByEndDate(question, "o.value_datetime", which, StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getObsValueNumericByEndDate(Concept question, TimeQualifier which) {
+        return getObsByEndDate(question, "o.value_numeric", which, StreamingPatientColumn.Format.VALUE);
+    }
+
+    public StreamingPatientColumn getObsValueCodedByEndDate(Concept question, TimeQualifier which) {
+        return getObsByEndDate(question, "o.value_coded", which, StreamingPatientColumn.Format.CONCEPT_NAME);
+    }
+
+    protected StreamingPatientColumn getObsByEndDate(Concept question, String column, TimeQualifier which, StreamingPatientColumn.Format format) {
+        return new StreamingPatientColumn(
+                "select o.person_id, " + column + " from obs o where o.voided = 0 and o.concept_id = " + question.getConceptId()
+                        + " and o.obs_datetime" + ON_OR_BEFORE_END_DATE,
+                "o.person_id", order(which, "o.obs_datetime", "o.obs_id"), format);
+    }
+
+    protected String order(TimeQualifier which, String dateColumn, String idColumn) {
+        String direction = which == TimeQualifier.LAST ? " desc" : "";
+        return dateColumn + direction + ", " + idColumn + direction;
+    }
+}
@@ -0,0 +1,219 @@
+package org.openmrs.module.aijarreports.renderer;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.openmrs.module.reporting.common.ExcelUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationUtil;
+import org.openmrs.module.reporting.report.renderer.RenderingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An Excel template scanned once, keeping its bytes and the coordinates and text of every cell holding an expression.
+ * Parsed workbooks are kept in a small pool. A render takes a workbook no other render is using, or parses one from the
+ * bytes when none is idle, stamps the evaluated expressions into those cells only, writes it and puts the template text
+ * and styles back before returning it to the pool. Renders of a template so neither share a workbook nor parse or scan
+ * the template again. A workbook is retired after a number of renders, as the styles ExcelUtil adds for dates pile up
+ * in it, and whenever its cells could not be put back
+ */
+public class CompiledExcelTemplate {
+
+    protected static final int MAX_IDLE_WORKBOOKS = 2;
+
+    protected static final int MAX_RENDERS_PER_WORKBOOK = 50;
+
+    private final byte[] contents;
+
+    private final String prefix;
+
+    private final String suffix;
+
+    private final List<Placeholder> placeholders;
+
+    private final boolean stampable;
+
+    private final Queue<ParsedWorkbook> idle = new ConcurrentLinkedQueue<ParsedWorkbook>();
+
+    protected CompiledExcelTemplate(byte[] contents, String prefix, String suffix, List<Placeholder> placeholders, boolean stampable) {
+        this.contents = contents.clone();
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.placeholders = Collections.unmodifiableList(placeholders);
+        this.stampable = stampable;
+    }
+
+    /**
+     * Parses the template and scans it for expressions, keeping the parsed workbook for the first render. Templates
+     * with expressions in sheet names are not stampable
+     */
+    public static CompiledExcelTemplate compile(byte[] contents, String prefix, String suffix) throws IOException {
+        Workbook workbook = read(contents);
+        List<Placeholder> placeholders = new ArrayList<Placeholder>();
+        boolean stampable = true;
+        for (int s = 0; s < workbook.getNumberOfSheets(); s++) {
+            Sheet sheet = workbook.getSheetAt(s);
+            if (sheet.getSheetName().contains(prefix)) {
+                stampable = false;
+            }
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() == Cell.CELL_TYPE_STRING && cell.getStringCellValue().contains(prefix)) {
+                        placeholders.add(new Placeholder(s, cell.getRowIndex(), cell.getColumnIndex(), cell.getStringCellValue()));
+                    }
+                }
+            }
+        }
+        CompiledExcelTemplate template = new CompiledExcelTemplate(contents, prefix, suffix, placeholders, stampable);
+        if (stampable) {
+            template.idle.offer(template.new ParsedWorkbook(workbook));
+        }
+        return template;
+    }
+
+    protected static Workbook read(byte[] contents) throws IOException {
+        try {
+            return WorkbookFactory.create(new ByteArrayInputStream(contents));
+        } catch (Exception e) {
+            throw new IOException("Unable to read Excel template", e);
+        }
+    }
+
+    public boolean isStampable() {
+        return stampable;
+    }
+
+    public List<Placeholder> getPlaceholders() {
+        return placeholders;
+    }
+
+    public void render(Map<String, Object> replacements, OutputStream out) throws IOException, RenderingException {
+        // every expression is evaluated before a workbook is taken, so a failing one leaves no workbook half stamped
+        List<Object> values = new ArrayList<Object>(placeholders.size());
+        for (Placeholder p : placeholders) {
+            try {
+                values.add(EvaluationUtil.evaluateExpression(p.text, replacements, prefix, suffix));
+            } catch (Exception e) {
+                throw new RenderingException("Unable to evaluate " + p.text, e);
+            }
+        }
+
+        ParsedWorkbook parsed = take();
+        boolean restored = false;
+        try {
+            for (int i = 0; i < placeholders.size(); i++) {
+                ExcelUtil.setCellContents(parsed.cells[i], values.get(i));
+            }
+            parsed.workbook.setForceFormulaRecalculation(true);
+            parsed.workbook.write(out);
+            parsed.restore();
+            restored = true;
+        } finally {
+            if (restored) {
+                release(parsed);
+            }
+        }
+    }
+
+    /**
+     * @return an idle parsed workbook, or one parsed now if there is none
+     */
+    protected ParsedWorkbook take() throws IOException {
+        ParsedWorkbook parsed = idle.poll();
+        return parsed != null ? parsed : new ParsedWorkbook(read(contents));
+    }
+
+    /**
+     * Returns a restored workbook to the pool, unless the pool is full or the workbook has been used too often
+     */
+    protected void release(ParsedWorkbook parsed) {
+        parsed.renders++;
+        if (parsed.renders < MAX_RENDERS_PER_WORKBOOK && idle.size() < MAX_IDLE_WORKBOOKS) {
+            idle.offer(parsed);
+        }
+    }
+
+    /**
+     * A workbook read from the template, with its expression cells and their template styles
+     */
+    protected class ParsedWorkbook {
+
+        private final Workbook workbook;
+
+        private final Cell[] cells;
+
+        private final CellStyle[] styles;
+
+        private int renders = 0;
+
+        ParsedWorkbook(Workbook workbook) {
+            this.workbook = workbook;
+            this.cells = new Cell[placeholders.size()];
+            this.styles = new CellStyle[placeholders.size()];
+            for (int i = 0; i < cells.length; i++) {
+                Placeholder p = placeholders.get(i);
+                cells[i] = workbook.getSheetAt(p.sheet).getRow(p.row).getCell(p.column);
+                styles[i] = cells[i].getCellStyle();
+            }
+        }
+
+        /**
+         * Puts the template text and style back into every expression cell
+         */
+        void restore() {
+            for (int i = 0; i < cells.length; i++) {
+                cells[i].setCellType(Cell.CELL_TYPE_BLANK);
+                cells[i].setCellValue(placeholders.get(i).text);
+                cells[i].setCellStyle(styles[i]);
+            }
+        }
+    }
+
+    /**
+     * A template cell holding an expression
+     */
+    public static class Placeholder {
+
+        private final int sheet;
+
+        private final int row;
+
+        private final int column;
+
+        private final String text;
+
+        Placeholder(int sheet, int row, int column, String text) {
+            this.sheet = sheet;
+            this.row = row;
+            this.column = column;
+            this.text = text;
+        }
+
+        public int getSheet() {
+            return sheet;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
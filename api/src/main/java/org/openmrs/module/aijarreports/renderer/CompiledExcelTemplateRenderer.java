@@ -0,0 +1,73 @@
+package org.openmrs.module.aijarreports.renderer;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.reporting.common.Localized;
+import org.openmrs.module.reporting.report.ReportData;
+import org.openmrs.module.reporting.report.ReportDesign;
+import org.openmrs.module.reporting.report.ReportDesignResource;
+import org.openmrs.module.reporting.report.renderer.ExcelTemplateRenderer;
+import org.openmrs.module.reporting.report.renderer.RenderingException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Renders Excel template designs from templates compiled once per template checksum. A template is scanned for
+ * expressions on first use only, and its parsed workbooks are reused across renders, so it is parsed again only when
+ * renders overlap or a workbook is retired. Designs with repeating sections, and templates with expressions in sheet
+ * names, are rendered by the ExcelTemplateRenderer as before
+ */
+@Handler
+@Localized("reporting.ExcelTemplateRenderer")
+public class CompiledExcelTemplateRenderer extends ExcelTemplateRenderer {
+
+    protected static final Log log = LogFactory.getLog(CompiledExcelTemplateRenderer.class);
+
+    private static final ConcurrentMap<String, CompiledExcelTemplate> templates = new ConcurrentHashMap<String, CompiledExcelTemplate>();
+
+    @Override
+    public void render(ReportData reportData, String argument, OutputStream out) throws IOException, RenderingException {
+        ReportDesign design = getDesign(argument);
+        ReportDesignResource resource = getTemplate(design);
+        if (resource == null || resource.getContents() == null || StringUtils.isNotBlank(design.getPropertyValue("repeatingSections", null))) {
+            super.render(reportData, argument, out);
+            return;
+        }
+        CompiledExcelTemplate template = getCompiledTemplate(resource.getContents(), getExpressionPrefix(design), getExpressionSuffix(design));
+        if (!template.isStampable()) {
+            super.render(reportData, argument, out);
+            return;
+        }
+        template.render(getBaseReplacementData(reportData, design), out);
+    }
+
+    protected CompiledExcelTemplate getCompiledTemplate(byte[] contents, String prefix, String suffix) throws IOException {
+        String key = checksum(contents) + ":" + prefix + ":" + suffix;
+        CompiledExcelTemplate template = templates.get(key);
+        if (template == null) {
+            CompiledExcelTemplate compiled = CompiledExcelTemplate.compile(contents, prefix, suffix);
+            template = templates.putIfAbsent(key, compiled);
+            if (template == null) {
+                log.debug("Compiled Excel template " + key + " with " + compiled.getPlaceholders().size() + " expressions");
+                template = compiled;
+            }
+        }
+        return template;
+    }
+
+    protected String checksum(byte[] contents) {
+        try {
+            return new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(contents)).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
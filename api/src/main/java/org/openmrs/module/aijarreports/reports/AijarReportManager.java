@@ -19,6 +19,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.module.aijarreports.AijarReportUtil;
+import org.openmrs.module.aijarreports.renderer.CompiledExcelTemplateRenderer;
 import org.openmrs.module.reporting.common.ObjectUtil;
 import org.openmrs.module.reporting.data.encounter.definition.EncounterDataDefinition;
 import org.openmrs.module.reporting.data.encounter.definition.PatientToEncounterDataDefinition;
@@ -78,6 +79,16 @@ public abstract class AijarReportManager extends BaseReportManager {
 		return ReportManagerUtil.createExcelTemplateDesign(reportDesignUuid, reportDefinition, resourcePath);
 	}
 
+	/**
+	 * @return an Excel template design rendered from a template compiled once, for templates without repeating sections
+	 */
+	protected ReportDesign createCompiledExcelTemplateDesign(String reportDesignUuid, ReportDefinition reportDefinition,
+	                                                         String templatePath) {
+		ReportDesign design = createExcelTemplateDesign(reportDesignUuid, reportDefinition, templatePath);
+		design.setRendererType(CompiledExcelTemplateRenderer.class);
+		return design;
+	}
+
 	protected ReportDesign createExcelDesign(String reportDesignUuid, ReportDefinition reportDefinition) {
 		return AijarReportUtil.createExcelDesign(reportDesignUuid, reportDefinition);
 	}
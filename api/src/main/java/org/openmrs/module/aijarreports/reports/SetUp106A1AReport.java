@@ -1,5 +1,6 @@
 package org.openmrs.module.aijarreports.reports;
 
+import org.openmrs.module.aijarreports.definition.dataset.definition.IndexedCohortIndicatorDataSetDefinition;
 import org.openmrs.module.aijarreports.library.CommonCohortDefinitionLibrary;
 import org.openmrs.module.aijarreports.library.CommonDimensionLibrary;
 import org.openmrs.module.aijarreports.library.DataFactory;
@@ -74,7 +75,7 @@ public class SetUp106A1AReport extends AijarDataExportManager {
 
     @Override
     public ReportDesign buildReportDesign(ReportDefinition reportDefinition) {
-        return createExcelTemplateDesign(getExcelDesignUuid(), reportDefinition, "106A1AReport.xls");
+        return createCompiledExcelTemplateDesign(getExcelDesignUuid(), reportDefinition, "106A1AReport.xls");
     }
 
     @Override
@@ -85,7 +86,7 @@ public class SetUp106A1AReport extends AijarDataExportManager {
         rd.setDescription(getDescription());
         rd.setParameters(getParameters());
 
-        CohortIndicatorDataSetDefinition dsd = new CohortIndicatorDataSetDefinition();
+        CohortIndicatorDataSetDefinition dsd = new IndexedCohortIndicatorDataSetDefinition();
 
         dsd.setParameters(getParameters());
         rd.addDataSetDefinition("indicators", Mapped.mapStraightThrough(dsd));
@@ -282,6 +283,6 @@ public class SetUp106A1AReport extends AijarDataExportManager {
 
     @Override
     public String getVersion() {
-        return "0.1";
+        return "0.4";
     }
 }
@@ -1,5 +1,6 @@
 package org.openmrs.module.aijarreports.reports;
 
+import org.openmrs.module.aijarreports.definition.dataset.definition.ParallelCohortIndicatorDataSetDefinition;
 import org.openmrs.module.aijarreports.library.*;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
 import org.openmrs.module.reporting.ReportingConstants;
@@ -82,7 +83,7 @@ public class SetUp106A1BReport extends AijarDataExportManager {
 
     @Override
     public ReportDesign buildReportDesign(ReportDefinition reportDefinition) {
-        return createExcelTemplateDesign(getExcelDesignUuid(), reportDefinition, "106A1BReport.xls");
+        return createCompiledExcelTemplateDesign(getExcelDesignUuid(), reportDefinition, "106A1BReport.xls");
     }
 
     @Override
@@ -92,7 +93,7 @@ public class SetUp106A1BReport extends AijarDataExportManager {
         rd.setName(getName());
         rd.setDescription(getDescription());
         rd.setParameters(getParameters());
-        CohortIndicatorDataSetDefinition dsd = new CohortIndicatorDataSetDefinition();
+        CohortIndicatorDataSetDefinition dsd = new ParallelCohortIndicatorDataSetDefinition();
 
         dsd.setParameters(getParameters());
         rd.addDataSetDefinition("indicators_106a1b", Mapped.mapStraightThrough(dsd));
@@ -234,6 +235,6 @@ public class SetUp106A1BReport extends AijarDataExportManager {
 
     @Override
     public String getVersion() {
-        return "0.1";
+        return "0.4";
     }
 }
@@ -3,15 +3,19 @@ package org.openmrs.module.aijarreports.reports;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.aijarreports.definition.dataset.definition.StreamingPatientListDataSetDefinition;
 import org.openmrs.module.aijarreports.library.ARTClinicCohortDefinitionLibrary;
 import org.openmrs.module.aijarreports.library.BasePatientDataLibrary;
 import org.openmrs.module.aijarreports.library.DataFactory;
 import org.openmrs.module.aijarreports.library.HIVPatientDataLibrary;
+import org.openmrs.module.aijarreports.library.StreamingColumnFactory;
 import org.openmrs.module.aijarreports.metadata.CommonReportMetadata;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.common.TimeQualifier;
 import org.openmrs.module.reporting.data.patient.library.BuiltInPatientDataLibrary;
-import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
 import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.openmrs.module.reporting.report.ReportDesign;
@@ -46,6 +50,9 @@ public class SetupARTCarePatientExportList extends AijarDataExportManager {
 
 	@Autowired
 	private BasePatientDataLibrary basePatientData;
+
+	@Autowired
+	private StreamingColumnFactory streamingColumns;
 	
 	/**
 	 * @return the uuid for the report design for exporting to Excel
@@ -104,7 +111,7 @@ public class SetupARTCarePatientExportList extends AijarDataExportManager {
 		rd.setDescription(getDescription());
 		rd.setParameters(getParameters());
 
-		PatientDataSetDefinition dsd = new PatientDataSetDefinition();
+		StreamingPatientListDataSetDefinition dsd = new StreamingPatientListDataSetDefinition();
 		dsd.setName(getName());
 		dsd.setParameters(getParameters());
 		rd.addDataSetDefinition(getName(), Mapped.mapStraightThrough(dsd));
@@ -114,36 +121,32 @@ public class SetupARTCarePatientExportList extends AijarDataExportManager {
 		CohortDefinition rowFilter = hivCohorts.getPatientsWithReturnVisitDateOnEndDate();
 		dsd.addRowFilter(Mapped.mapStraightThrough(rowFilter));
 
-		// columns to include
-		addColumn(dsd, "ID", hivPatientData.getClinicNumber());
-		addColumn(dsd, "Family Name", builtInPatientData.getPreferredFamilyName());
-		addColumn(dsd, "Given Name", builtInPatientData.getPreferredGivenName());
-		addColumn(dsd, "Gender", builtInPatientData.getGender());
-		addColumn(dsd, "Date of Birth", builtInPatientData.getBirthdate());
-		addColumn(dsd, "Current Age", builtInPatientData.getAgeAtEnd());
-		addColumn(dsd, "Date Enrolled", hivPatientData.getEnrollmentDate());
-		addColumn(dsd, "ART Start Date", hivPatientData.getARTStartDate());
-		addColumn(dsd, "Last ART Date", hivPatientData
-				.getLastRegimenPickupDate()); // when the patient last got ART drugs, N/A for lost to follow up and those
-		// not in ART
-		addColumn(dsd, "ARVs for X days", hivPatientData.getARVDuration());
-		addColumn(dsd, "Expected Return Date", hivPatientData.getExpectedReturnDate());
-		addColumn(dsd, "Current Regimen", hivPatientData.getCurrentRegimen());
-		addColumn(dsd, "Current Regimen Date", hivPatientData.getCurrentRegimenDate());
-		addColumn(dsd, "Start Regimen", hivPatientData.getStartRegimen());
-		addColumn(dsd, "Start Regimen Date", hivPatientData.getStartRegimenDate());
-		addColumn(dsd, "CD4 at Enrollment", hivPatientData.getCD4AtEnrollment());
-		addColumn(dsd, "Baseline CD4", hivPatientData.getBaselineCD4());
-		addColumn(dsd, "CD4 at 6 months", hivPatientData.getCD4At6months());
-		/*addColumn(dsd, "Date of CD4 at 6 months", hivPatientData.getDateofCD4At6months());
-		addColumn(dsd, "CD4 at 12 months", hivPatientData.getCD4At12months());
-		addColumn(dsd, "Date of CD4 at 12 months", hivPatientData.getDateofCD4At12months());*/
+		// columns to include, read in patient id order while the CSV is written
+		dsd.addColumn("ID", streamingColumns.getPreferredIdentifier(MetadataUtils.existing(PatientIdentifierType.class, "e1731641-30ab-102d-86b0-7a5022ba4115")));
+		dsd.addColumn("Family Name", streamingColumns.getPreferredFamilyName());
+		dsd.addColumn("Given Name", streamingColumns.getPreferredGivenName());
+		dsd.addColumn("Gender", streamingColumns.getGender());
+		dsd.addColumn("Date of Birth", streamingColumns.getBirthdate());
+		dsd.addColumn("Current Age", streamingColumns.getAgeAtEnd());
+		dsd.addColumn("Date Enrolled", streamingColumns.getEncounterDatetimeByEndDate(hivMetadata.getARTSummaryPageEncounterType().get(0), TimeQualifier.FIRST));
+		dsd.addColumn("ART Start Date", streamingColumns.getObsValueDatetimeByEndDate(hivMetadata.getArtStartDate(), TimeQualifier.LAST));
+		// when the patient last got ART drugs, N/A for lost to follow up and those not in ART
+		dsd.addColumn("Last ART Date", streamingColumns.getObsDatetimeByEndDate(hivMetadata.getCurrentRegimen(), TimeQualifier.LAST));
+		dsd.addColumn("ARVs for X days", streamingColumns.getObsValueNumericByEndDate(hivMetadata.getARVDuration(), TimeQualifier.LAST));
+		dsd.addColumn("Expected Return Date", streamingColumns.getObsValueDatetimeByEndDate(hivMetadata.getExpectedReturnDate(), TimeQualifier.LAST));
+		dsd.addColumn("Current Regimen", streamingColumns.getObsValueCodedByEndDate(hivMetadata.getCurrentRegimen(), TimeQualifier.LAST));
+		dsd.addColumn("Current Regimen Date", streamingColumns.getObsDatetimeByEndDate(hivMetadata.getCurrentRegimen(), TimeQualifier.LAST));
+		dsd.addColumn("Start Regimen", streamingColumns.getObsValueCodedByEndDate(hivMetadata.getArtStartRegimen(), TimeQualifier.LAST));
+		dsd.addColumn("Start Regimen Date", streamingColumns.getObsValueDatetimeByEndDate(hivMetadata.getArtStartDate(), TimeQualifier.LAST));
+		dsd.addColumn("CD4 at Enrollment", streamingColumns.getObsValueNumericByEndDate(hivMetadata.getCD4AtEnrollment(), TimeQualifier.FIRST));
+		dsd.addColumn("Baseline CD4", streamingColumns.getObsValueNumericByEndDate(hivMetadata.getBaselineCD4(), TimeQualifier.FIRST));
+		dsd.addColumn("CD4 at 6 months", streamingColumns.getObsValueNumericByEndDate(hivMetadata.getBaselineCD4(), TimeQualifier.LAST));
 
 		return rd;
 	}
 
 	@Override
 	public String getVersion() {
-		return "0.1";
+		return "0.3";
 	}
 }
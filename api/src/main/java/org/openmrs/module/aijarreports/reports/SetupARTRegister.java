@@ -1,5 +1,6 @@
 package org.openmrs.module.aijarreports.reports;
 
+import org.openmrs.module.aijarreports.definition.dataset.definition.BatchedPatientDataSetDefinition;
 import org.openmrs.module.aijarreports.library.*;
 import org.openmrs.module.aijarreports.metadata.CommonReportMetadata;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
@@ -112,7 +113,7 @@ public class SetupARTRegister extends AijarDataExportManager {
         rd.setDescription(getDescription());
         rd.setParameters(getParameters());
 
-        PatientDataSetDefinition dsd = new PatientDataSetDefinition();
+        PatientDataSetDefinition dsd = new BatchedPatientDataSetDefinition();
         dsd.setName(getName());
         dsd.setParameters(getParameters());
         rd.addDataSetDefinition("ART", Mapped.mapStraightThrough(dsd));
@@ -147,7 +148,7 @@ public class SetupARTRegister extends AijarDataExportManager {
         addColumn(dsd, "EDD4", hivPatientData.getEDDDate(3));
         addColumn(dsd, "BASE REGIMEN", hivPatientData.getBaseRegimen());
 
-        for (int i = 0; i <= 71; i++) {
+        for (int i = 0; i < HIVPatientDataLibrary.ART_REGISTER_MONTHS; i++) {
             addColumn(dsd, "CPT" + (i + 1), hivPatientData.getCPTStatusDuringMonth(i));
             addColumn(dsd, "TB" + (i + 1), hivPatientData.getTBStatusDuringMonth(i));
             addColumn(dsd, "ARV" + (i + 1), hivPatientData.getARVRegimenDuringMonth(i));
@@ -160,6 +161,6 @@ public class SetupARTRegister extends AijarDataExportManager {
 
     @Override
     public String getVersion() {
-        return "0.1";
+        return "0.3";
     }
 }
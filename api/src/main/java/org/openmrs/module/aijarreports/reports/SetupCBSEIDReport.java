@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.openmrs.module.aijarreports.definition.dataset.definition.IndexedCohortIndicatorDataSetDefinition;
 import org.openmrs.module.aijarreports.library.DataFactory;
 import org.openmrs.module.aijarreports.library.EIDCohortDefinitionLibrary;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
@@ -79,7 +80,7 @@ public class SetupCBSEIDReport extends AijarDataExportManager {
 
 		rd.setBaseCohortDefinition(Mapped.mapStraightThrough(eidCohorts.getPatientsWithAnEIDNumber()));
 
-		CohortIndicatorDataSetDefinition dsd = new CohortIndicatorDataSetDefinition();
+		CohortIndicatorDataSetDefinition dsd = new IndexedCohortIndicatorDataSetDefinition();
 		dsd.setParameters(getParameters());
 		rd.addDataSetDefinition("cohort", Mapped.mapStraightThrough(dsd));
 
@@ -226,11 +227,11 @@ public class SetupCBSEIDReport extends AijarDataExportManager {
 	 */
 	@Override
 	public ReportDesign buildReportDesign(ReportDefinition reportDefinition) {
-		return createExcelTemplateDesign(getExcelDesignUuid(), reportDefinition, "CBSEIDCohortReport.xls");
+		return createCompiledExcelTemplateDesign(getExcelDesignUuid(), reportDefinition, "CBSEIDCohortReport.xls");
 	}
 
 	@Override
 	public String getVersion() {
-		return "0.1";
+		return "0.4";
 	}
 }
@@ -1,5 +1,6 @@
 package org.openmrs.module.aijarreports.reports;
 
+import org.openmrs.module.aijarreports.definition.dataset.definition.BatchedPatientDataSetDefinition;
 import org.openmrs.module.aijarreports.library.*;
 import org.openmrs.module.aijarreports.metadata.CommonReportMetadata;
 import org.openmrs.module.aijarreports.metadata.HIVMetadata;
@@ -111,7 +112,7 @@ public class SetupPreARTRegister extends AijarDataExportManager {
         rd.setDescription(getDescription());
         rd.setParameters(getParameters());
 
-        PatientDataSetDefinition dsd = new PatientDataSetDefinition();
+        PatientDataSetDefinition dsd = new BatchedPatientDataSetDefinition();
         dsd.setName(getName());
         dsd.setParameters(getParameters());
         rd.addDataSetDefinition("PRE_ART", Mapped.mapStraightThrough(dsd));
@@ -156,7 +157,7 @@ public class SetupPreARTRegister extends AijarDataExportManager {
         addColumn(dsd, "Date Eligible and Ready", hivPatientData.getARTEligibilityAndReadyDate());
         addColumn(dsd, "Date ART Started", hivPatientData.getARTStartDate());
 
-        for (int i = 0; i <= 15; i++) {
+        for (int i = 0; i < HIVPatientDataLibrary.PRE_ART_REGISTER_QUARTERS; i++) {
             addColumn(dsd, "CPT" + (i + 1), hivPatientData.getCPTStatusDuringQuarter(i));
             addColumn(dsd, "INH" + (i + 1), hivPatientData.getINHStatusDuringQuarter(i));
             addColumn(dsd, "TB" + (i + 1), hivPatientData.getTBStatusDuringQuarter(i));
@@ -170,6 +171,6 @@ public class SetupPreARTRegister extends AijarDataExportManager {
 
     @Override
     public String getVersion() {
-        return "0.1";
+        return "0.3";
     }
 }
@@ -0,0 +1,152 @@
+package org.openmrs.module.aijarreports.definition.cohort.evaluator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.module.aijarreports.definition.cohort.definition.BitmapCompositionCohortDefinition;
+import org.openmrs.module.aijarreports.evaluation.PatientBitmap;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.CompositionCohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.GenderCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the composition string parser of BitmapCompositionCohortDefinitionEvaluator against fixed search results, so no
+ * search is evaluated against the database
+ */
+public class BitmapCompositionCohortDefinitionEvaluatorTest {
+
+    private final Map<String, PatientBitmap> results = new HashMap<String, PatientBitmap>();
+
+    private BitmapCompositionCohortDefinitionEvaluator evaluator;
+
+    @Before
+    public void setUp() {
+        results.put("1", bitmap(1, 2, 3, 4));
+        results.put("2", bitmap(3, 4, 5, 6));
+        results.put("3", bitmap(4, 6, 8));
+        evaluator = new BitmapCompositionCohortDefinitionEvaluator() {
+            @Override
+            protected PatientBitmap evaluateSearch(Mapped<CohortDefinition> mapped, EvaluationContext context) {
+                return results.get(mapped.getParameterizable().getName());
+            }
+
+            @Override
+            protected PatientBitmap getAllPatients(EvaluationContext context) {
+                return bitmap(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+            }
+        };
+    }
+
+    @Test
+    public void combine_shouldIntersectWithAnd() throws Exception {
+        assertMembers(combine("1 AND 2"), 3, 4);
+    }
+
+    @Test
+    public void combine_shouldUniteWithOr() throws Exception {
+        assertMembers(combine("1 OR 2"), 1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    public void combine_shouldSubtractWithAndNotOrNot() throws Exception {
+        assertMembers(combine("1 AND NOT 2"), 1, 2);
+        assertMembers(combine("1 NOT 2"), 1, 2);
+    }
+
+    @Test
+    public void combine_shouldTakeLeadingNotAgainstAllPatients() throws Exception {
+        assertMembers(combine("NOT 1"), 5, 6, 7, 8, 9, 10);
+    }
+
+    @Test
+    public void combine_shouldApplyOperatorsLeftToRightAsTheReportingModuleDoes() throws Exception {
+        assertMembers(combine("1 OR 2 AND 3"), 4, 6);
+        assertMembers(combine("1 AND 2 OR 3"), 3, 4, 6, 8);
+    }
+
+    @Test
+    public void combine_shouldEvaluateParenthesesFirst() throws Exception {
+        assertMembers(combine("1 OR (2 AND 3)"), 1, 2, 3, 4, 6);
+        assertMembers(combine("((1 OR 2)) AND NOT (3)"), 1, 2, 3, 5);
+    }
+
+    @Test
+    public void combine_shouldNegateParenthesizedExpressions() throws Exception {
+        assertMembers(combine("NOT (1 OR 2)"), 7, 8, 9, 10);
+        assertMembers(combine("2 AND NOT (1 OR 3)"), 5);
+    }
+
+    @Test
+    public void combine_shouldAcceptOperatorsInAnyCase() throws Exception {
+        assertMembers(combine("1 and not 2 or 3"), 1, 2, 4, 6, 8);
+    }
+
+    @Test
+    public void combine_shouldRestrictTheResultToTheBaseCohort() throws Exception {
+        EvaluationContext context = new EvaluationContext();
+        context.setBaseCohort(new Cohort(Arrays.asList(2, 3, 4, 5)));
+        assertMembers(evaluator.combine(composition("1 OR 2"), context), 2, 3, 4, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combine_shouldFailOnAnUnknownSearch() throws Exception {
+        combine("1 AND 4");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combine_shouldFailOnAMissingClosingParenthesis() throws Exception {
+        combine("(1 OR 2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combine_shouldFailOnAnUnexpectedClosingParenthesis() throws Exception {
+        combine("1 OR 2) AND 3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combine_shouldFailOnADanglingOperator() throws Exception {
+        combine("1 AND");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combine_shouldFailOnAMissingOperator() throws Exception {
+        combine("1 2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combine_shouldFailOnAnEmptyComposition() throws Exception {
+        combine(" ");
+    }
+
+    private PatientBitmap combine(String compositionString) throws Exception {
+        return evaluator.combine(composition(compositionString), new EvaluationContext());
+    }
+
+    private CompositionCohortDefinition composition(String compositionString) {
+        CompositionCohortDefinition cd = new BitmapCompositionCohortDefinition();
+        for (String key : results.keySet()) {
+            GenderCohortDefinition search = new GenderCohortDefinition();
+            search.setName(key);
+            cd.getSearches().put(key, new Mapped<CohortDefinition>(search, null));
+        }
+        cd.setCompositionString(compositionString);
+        return cd;
+    }
+
+    private static PatientBitmap bitmap(Integer... patientIds) {
+        return PatientBitmap.of(Arrays.asList(patientIds));
+    }
+
+    private static void assertMembers(PatientBitmap actual, Integer... expected) {
+        assertEquals(new HashSet<Integer>(Arrays.asList(expected)), actual.getMemberIds());
+    }
+}
@@ -0,0 +1,71 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Cohort;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DimensionIndexTest {
+
+    private DimensionIndex index;
+
+    @Before
+    public void setUp() {
+        index = new DimensionIndex();
+        index.addOption("gender", "female", cohort(1, 2, 3));
+        index.addOption("gender", "male", cohort(4, 5, 600));
+        index.addOption("age", "child", cohort(1, 4));
+        index.addOption("age", "below2", cohort(1));
+    }
+
+    @Test
+    public void count_shouldCountPatientsHavingEveryRequiredOption() {
+        Map<Integer, Integer> histogram = index.histogram(cohort(1, 2, 3, 4, 5, 600, 700));
+        assertEquals(7, DimensionIndex.count(histogram, index.getRequiredMask(null)));
+        assertEquals(3, DimensionIndex.count(histogram, index.getRequiredMask(options("gender", "female"))));
+        assertEquals(1, DimensionIndex.count(histogram, index.getRequiredMask(options("gender", "male", "age", "child"))));
+        assertEquals(0, DimensionIndex.count(histogram, index.getRequiredMask(options("gender", "male", "age", "below2"))));
+    }
+
+    @Test
+    public void count_shouldCountPatientsInOverlappingOptionsUnderEach() {
+        Map<Integer, Integer> histogram = index.histogram(cohort(1, 2));
+        assertEquals(1, DimensionIndex.count(histogram, index.getRequiredMask(options("age", "child"))));
+        assertEquals(1, DimensionIndex.count(histogram, index.getRequiredMask(options("age", "below2"))));
+    }
+
+    @Test
+    public void getMask_shouldBeZeroForPatientsInNoOption() {
+        assertEquals(0, index.getMask(700));
+        assertEquals(0, index.getMask(100000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getRequiredMask_shouldFailOnAnUnknownOption() {
+        index.getRequiredMask(options("age", "adult"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addOption_shouldFailBeyondTheMaximumNumberOfOptions() {
+        for (int i = 0; i < DimensionIndex.MAX_OPTIONS; i++) {
+            index.addOption("other", "option" + i, cohort(1));
+        }
+    }
+
+    private static Cohort cohort(Integer... patientIds) {
+        return new Cohort(Arrays.asList(patientIds));
+    }
+
+    private static Map<String, String> options(String... dimensionOptions) {
+        Map<String, String> ret = new HashMap<String, String>();
+        for (int i = 0; i < dimensionOptions.length; i += 2) {
+            ret.put(dimensionOptions[i], dimensionOptions[i + 1]);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,63 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.junit.Test;
+import org.openmrs.Cohort;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatientBitmapTest {
+
+    @Test
+    public void and_shouldKeepPatientsInBoth() {
+        assertMembers(bitmap(1, 2, 3, 70).and(bitmap(2, 3, 4)), 2, 3);
+    }
+
+    @Test
+    public void or_shouldKeepPatientsInEither() {
+        assertMembers(bitmap(1, 2).or(bitmap(2, 130)), 1, 2, 130);
+    }
+
+    @Test
+    public void andNot_shouldRemovePatientsOfTheOther() {
+        assertMembers(bitmap(1, 2, 3, 200).andNot(bitmap(2, 300)), 1, 3, 200);
+    }
+
+    @Test
+    public void operations_shouldLeaveTheOperandsUnchanged() {
+        PatientBitmap a = bitmap(1, 2, 3);
+        PatientBitmap b = bitmap(3, 4);
+        a.and(b);
+        a.or(b);
+        a.andNot(b);
+        assertMembers(a, 1, 2, 3);
+        assertMembers(b, 3, 4);
+    }
+
+    @Test
+    public void size_shouldCountDistinctPatients() {
+        PatientBitmap bitmap = bitmap(5, 5, 9);
+        assertEquals(2, bitmap.size());
+        assertTrue(bitmap.contains(9));
+        assertFalse(bitmap.contains(6));
+        assertTrue(new PatientBitmap().isEmpty());
+    }
+
+    @Test
+    public void toCohort_shouldHoldTheSameMembersAsTheCohortItWasBuiltFrom() {
+        Cohort cohort = new Cohort(Arrays.asList(4, 8, 15, 16, 23, 42));
+        assertEquals(cohort.getMemberIds(), PatientBitmap.of(cohort).toCohort().getMemberIds());
+    }
+
+    private static PatientBitmap bitmap(Integer... patientIds) {
+        return PatientBitmap.of(Arrays.asList(patientIds));
+    }
+
+    private static void assertMembers(PatientBitmap actual, Integer... expected) {
+        assertEquals(new HashSet<Integer>(Arrays.asList(expected)), actual.getMemberIds());
+    }
+}
@@ -0,0 +1,75 @@
+package org.openmrs.module.aijarreports.evaluation;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.common.DateUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortedPatientDateIndexTest {
+
+    private SortedPatientDateIndex index;
+
+    @Before
+    public void setUp() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[] {5, date(2016, 3, 1)});
+        rows.add(new Object[] {1, date(2016, 1, 1)});
+        rows.add(new Object[] {3, date(2016, 2, 1)});
+        rows.add(new Object[] {4, date(2016, 2, 1)});
+        rows.add(new Object[] {2, null});
+        index = new SortedPatientDateIndex(new Cohort(Arrays.asList(1, 2, 3, 4, 5)), rows);
+    }
+
+    @Test
+    public void getBetween_shouldIncludeBothBounds() {
+        assertMembers(index.getBetween(date(2016, 2, 1), date(2016, 3, 1)), 3, 4, 5);
+    }
+
+    @Test
+    public void getBetween_shouldFindAllPatientsSharingABoundDate() {
+        assertMembers(index.getBetween(date(2016, 2, 1), date(2016, 2, 1)), 3, 4);
+    }
+
+    @Test
+    public void getBetween_shouldTreatNullBoundsAsOpen() {
+        assertMembers(index.getBetween(null, date(2016, 1, 31)), 1);
+        assertMembers(index.getBetween(date(2016, 2, 2), null), 5);
+        assertMembers(index.getBetween(null, null), 1, 3, 4, 5);
+    }
+
+    @Test
+    public void getBetween_shouldBeEmptyOutsideTheIndexedDates() {
+        assertTrue(index.getBetween(date(2015, 1, 1), date(2015, 12, 31)).isEmpty());
+        assertTrue(index.getBetween(date(2016, 1, 2), date(2016, 1, 31)).isEmpty());
+    }
+
+    @Test
+    public void constructor_shouldLeaveOutRowsWithoutDate() {
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void covers_shouldOnlyCoverCohortsWithinTheIndexedCohort() {
+        assertTrue(index.covers(new Cohort(Arrays.asList(1, 2))));
+        assertFalse(index.covers(new Cohort(Arrays.asList(1, 6))));
+        assertFalse(index.covers(null));
+    }
+
+    private static Date date(int year, int month, int day) {
+        return DateUtil.getDateTime(year, month, day);
+    }
+
+    private static void assertMembers(PatientBitmap actual, Integer... expected) {
+        assertEquals(new HashSet<Integer>(Arrays.asList(expected)), actual.getMemberIds());
+    }
+}